@@ -0,0 +1,69 @@
+package cytargetlinker.conversion.bench;
+
+import cytargetlinker.conversion.graph.AttributeHolder;
+
+/**
+ * Microbenchmark for a hub node that collects thousands of distinct
+ * values in one attribute (e.g. a TF with many pubmed ids), comparing
+ * {@link AttributeHolder#appendAttribute(String, String)} with the
+ * previous string concatenation.
+ * @author Thomas
+ *
+ */
+public class AppendAttributeBenchmark {
+
+	private static int [] sizes = {1000, 4000, 16000, 64000};
+	
+	public static void main(String[] args) throws Exception {
+		// string concatenation is quadratic, a few iterations are enough
+		Bench.setIterations(3, 5);
+		for(int n : sizes) {
+			final String [] values = values(n);
+			if(!legacy(values).equals(holder(values))) {
+				throw new IllegalStateException("Different result for " + n + " values");
+			}
+			Bench.Result legacy = Bench.run("string concat, " + n + " values", n, new Bench.Task() {
+				public long run() {
+					return legacy(values).length();
+				}
+			});
+			Bench.Result set = Bench.run("value set, " + n + " values", n, new Bench.Task() {
+				public long run() {
+					return holder(values).length();
+				}
+			});
+			System.out.println(String.format("speedup %.2f", legacy.getNanosPerOp() / set.getNanosPerOp()));
+		}
+	}
+	
+	// every 4th value is a duplicate, as for a TF reported by several papers
+	private static String [] values(int n) {
+		String [] values = new String[n];
+		for(int i = 0; i < n; i++) {
+			values[i] = "" + (10000000 + (i % 4 == 3 ? i - 1 : i));
+		}
+		return values;
+	}
+	
+	private static String holder(String [] values) {
+		AttributeHolder hub = new AttributeHolder();
+		for(String v : values) {
+			hub.appendAttribute("pubmed", v);
+		}
+		// joined once, like the XGMML writer does
+		return hub.getAttribute("pubmed").toString();
+	}
+	
+	// the implementation AttributeHolder used before
+	private static String legacy(String [] values) {
+		String sep = "; ";
+		String curr = "";
+		for(String value : values) {
+			if("".equals(curr)) curr = value;
+			else if(!curr.startsWith(value) && !curr.contains(sep + value)) {
+				curr += sep + value;
+			}
+		}
+		return curr;
+	}
+}
@@ -0,0 +1,123 @@
+package cytargetlinker.conversion.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Small benchmark harness in the spirit of JMH (which is not part of
+ * the build): warmup iterations, measured iterations, time per operation
+ * (and throughput), bytes allocated per operation and per second (on 
+ * HotSpot JVMs) and the peak heap usage of the measured iterations.
+ * Results of the tasks are consumed so that the JIT can't remove the work.
+ * @author Thomas
+ *
+ */
+public class Bench {
+
+	public interface Task {
+		/**
+		 * runs the operations of one iteration
+		 * @return any value depending on the work done
+		 */
+		public long run() throws Exception;
+	}
+
+	public static class Result {
+		String name;
+		double nanosPerOp;
+		double bytesPerOp;
+		long peakHeap;
+
+		public double getNanosPerOp() { return nanosPerOp; }
+		public double getBytesPerOp() { return bytesPerOp; }
+		public long getPeakHeap() { return peakHeap; }
+
+		/**
+		 * @return allocated MB per second
+		 */
+		public double getAllocationRate() {
+			return bytesPerOp / nanosPerOp * 1e9 / (1 << 20);
+		}
+
+		public String toString() {
+			return String.format("%-40s %12.1f ns/op %12.0f ops/s %12.1f B/op %9.1f MB/s alloc %7d MB peak heap",
+					name, nanosPerOp, 1e9 / nanosPerOp, bytesPerOp, getAllocationRate(), peakHeap >> 20);
+		}
+	}
+
+	private static volatile long blackhole;
+
+	private static int warmup = 5;
+	private static int iterations = 10;
+
+	/**
+	 * sets the number of warmup and measured iterations of 
+	 * the next measurements, e.g. fewer for large inputs
+	 */
+	public static void setIterations(int warmupIterations, int measuredIterations) {
+		warmup = warmupIterations;
+		iterations = measuredIterations;
+	}
+
+	/**
+	 * @param ops number of operations done by one run of the task
+	 */
+	public static Result measure(String name, long ops, Task task) throws Exception {
+		for(int i = 0; i < warmup; i++) {
+			blackhole += task.run();
+		}
+		long nanos = 0;
+		long bytes = 0;
+		System.gc();
+		resetPeakHeap();
+		for(int i = 0; i < iterations; i++) {
+			long b = allocatedBytes();
+			long start = System.nanoTime();
+			blackhole += task.run();
+			nanos += System.nanoTime() - start;
+			bytes += allocatedBytes() - b;
+		}
+		Result r = new Result();
+		r.name = name;
+		r.nanosPerOp = nanos / (double)(iterations * ops);
+		r.bytesPerOp = bytes / (double)(iterations * ops);
+		r.peakHeap = peakHeap();
+		return r;
+	}
+
+	/**
+	 * measures and prints the result
+	 */
+	public static Result run(String name, long ops, Task task) throws Exception {
+		Result r = measure(name, ops, task);
+		System.out.println(r);
+		return r;
+	}
+
+	private static void resetPeakHeap() {
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	// sum of the peaks of the heap pools, the pools don't peak at the same
+	// time, so this is an upper bound of the heap used
+	private static long peakHeap() {
+		long peak = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	// bytes allocated by the current thread, -1 if the JVM can't tell
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,276 @@
+package cytargetlinker.conversion.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import msk.drugbank4.DrugModel;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.Xref;
+
+import cytargetlinker.conversion.DrugBank4;
+import cytargetlinker.conversion.DrugBankReader;
+import cytargetlinker.conversion.LineReader;
+import cytargetlinker.conversion.LineSource;
+import cytargetlinker.conversion.MappedLines;
+import cytargetlinker.conversion.MiRBase;
+import cytargetlinker.conversion.TabFileConverter;
+import cytargetlinker.conversion.TransmiR;
+import cytargetlinker.conversion.graph.Graph;
+import cytargetlinker.conversion.graph.RegINWriter;
+import cytargetlinker.conversion.graph.XGMMLWriter;
+import cytargetlinker.conversion.utils.FieldTokenizer;
+import cytargetlinker.conversion.utils.MappingService;
+import cytargetlinker.conversion.utils.PreloadedIDMapper;
+
+/**
+ * Benchmark suite of the converters on generated inputs (see {@link Generators}):
+ * parsing, building the graph, identifier mapping with a generated BridgeDb
+ * database and writing the network. Every benchmark reports time and
+ * throughput per interaction (or id), allocation and peak heap.
+ * Arguments: number of interactions (default: 100000), skew of the hub
+ * degrees (default: 2) and optionally a part of the names of the benchmarks
+ * to run. With more than a million interactions there is one warmup
+ * and three measured iterations.
+ * @author Thomas
+ *
+ */
+public class ConverterBenchmark {
+
+	private final static DataSource L = DataSource.getBySystemCode("L");
+	private final static DataSource EN = DataSource.getBySystemCode("En");
+	private final static DataSource S = DataSource.getBySystemCode("S");
+
+	// number of ids mapped with the Derby database, queries are slow
+	private final static int RDB_IDS = 5000;
+	private final static int WIDE_ATTRIBUTES = 20;
+
+	private static int interactions = 100000;
+	private static double skew = 2;
+	private static String filter = null;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0) interactions = Integer.parseInt(args[0]);
+		if(args.length > 1) skew = Double.parseDouble(args[1]);
+		if(args.length > 2) filter = args[2];
+		if(interactions > 1000000) Bench.setIterations(1, 3);
+
+		File dir = File.createTempFile("bench", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			run(dir);
+		} finally {
+			for(File f : dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	private static void run(File dir) throws Exception {
+		final int genes = Generators.genes(interactions);
+		final int drugs = interactions / 2;
+		long start = System.currentTimeMillis();
+		final File transmir = new File(dir, "transmir.txt");
+		Generators.transmir(transmir, interactions, skew);
+		final File drugbank = new File(dir, "drugbank.xml");
+		Generators.drugBank(drugbank, drugs, skew);
+		final File gff = new File(dir, "mirbase.gff3");
+		Generators.gff3(gff, interactions);
+		final File tab = new File(dir, "wide.txt");
+		Generators.wideTab(tab, interactions, WIDE_ATTRIBUTES, skew);
+		final File bridge = new File(dir, "genes.bridge");
+		Generators.bridge(bridge, genes);
+		System.out.println(interactions + " interactions, skew " + skew + ", " + genes + " genes, inputs generated in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		System.out.println("transmir " + mb(transmir) + ", drugbank " + mb(drugbank) + ", gff3 " + mb(gff)
+				+ ", tab " + mb(tab) + ", bridge " + mb(bridge));
+
+		// parse
+		run("parse transmir (LineSource)", interactions, new Bench.Task() {
+			public long run() throws Exception {
+				LineSource lines = LineSource.open(transmir, null);
+				FieldTokenizer tok = FieldTokenizer.tsv(0, 1, 3, 7, 8, 9);
+				long n = 0;
+				String line;
+				while((line = lines.next()) != null) {
+					n += tok.tokenize(line) + tok.length(9);
+				}
+				lines.close();
+				return n;
+			}
+		});
+		run("parse wide tab (MappedLines)", interactions, new Bench.Task() {
+			public long run() throws Exception {
+				LineReader lines = MappedLines.open(tab);
+				FieldTokenizer tok = FieldTokenizer.tsv(FieldTokenizer.range(WIDE_ATTRIBUTES + 2));
+				long n = 0;
+				CharSequence line;
+				while((line = lines.next()) != null) {
+					n += tok.tokenize(line);
+				}
+				lines.close();
+				return n;
+			}
+		});
+		run("parse drugbank (StAX)", drugs, new Bench.Task() {
+			public long run() throws Exception {
+				DrugBankReader reader = DrugBankReader.open(drugbank);
+				long n = 0;
+				DrugModel drug;
+				while((drug = reader.next()) != null) {
+					n += drug.getTargets().size();
+				}
+				reader.close();
+				return n;
+			}
+		});
+
+		// build the graph, TransmiR and DrugBank with preloaded mappings
+		final PreloadedIDMapper preloaded = PreloadedIDMapper.load(bridge, L, EN, S);
+		System.out.println(preloaded.getReport());
+		run("build tab (TabFileConverter)", interactions, new Bench.Task() {
+			public long run() throws Exception {
+				TabFileConverter converter = new TabFileConverter();
+				converter.setSourceIds(Collections.singletonList("source"));
+				converter.setTargetIds(Collections.singletonList("target"));
+				List<String> attributes = new ArrayList<String>();
+				for(int a = 1; a <= WIDE_ATTRIBUTES; a++) attributes.add("a" + a);
+				converter.setEdgeAttributes(attributes);
+				Graph g = new Graph();
+				converter.convert(tab, g);
+				converter.close();
+				return g.getEdgeCount();
+			}
+		});
+		run("build mirbase (gff3)", interactions, new Bench.Task() {
+			public long run() throws Exception {
+				LineSource lines = LineSource.open(gff, "#");
+				Graph g = new Graph();
+				new MiRBase().convert(lines, Collections.<String, Set<String>>emptyMap(), g);
+				lines.close();
+				return g.getEdgeCount();
+			}
+		});
+		final Graph [] transmirGraph = new Graph[1];
+		run("build transmir (preloaded mapping)", interactions, new Bench.Task() {
+			public long run() throws Exception {
+				LineSource lines = LineSource.open(transmir, null);
+				Graph g = new Graph();
+				new TransmiR("human", "hsa").convert(lines, new MappingService(preloaded), g);
+				lines.close();
+				transmirGraph[0] = g;
+				return g.getEdgeCount();
+			}
+		});
+		run("build drugbank (preloaded mapping)", drugs, new Bench.Task() {
+			public long run() throws Exception {
+				DrugBankReader reader = DrugBankReader.open(drugbank);
+				reader.setGroup("approved");
+				Graph g = new Graph();
+				new DrugBank4().convert(reader, new MappingService(preloaded), g);
+				reader.close();
+				return g.getEdgeCount();
+			}
+		});
+
+		// identifier mapping of Entrez Gene ids to Ensembl and UniProt
+		Class.forName("org.bridgedb.rdb.IDMapperRdb");
+		final IDMapper rdb = BridgeDb.connect("idmapper-pgdb:" + bridge.getAbsolutePath());
+		run("map ids (Derby)", Math.min(genes, RDB_IDS), new Bench.Task() {
+			public long run() throws Exception {
+				return map(rdb, Math.min(genes, RDB_IDS));
+			}
+		});
+		run("map ids (preloaded)", genes, new Bench.Task() {
+			public long run() throws Exception {
+				return map(preloaded, genes);
+			}
+		});
+		rdb.close();
+		run("load preloaded mappings", genes, new Bench.Task() {
+			public long run() throws Exception {
+				return PreloadedIDMapper.load(bridge, L, EN, S).getReport().length();
+			}
+		});
+
+		// write the TransmiR network
+		final Graph g = transmirGraph[0];
+		if(g == null) return;
+		final int elements = g.getNodeCount() + g.getEdgeCount();
+		System.out.println("network: " + g.getNodeCount() + " nodes, " + g.getEdgeCount() + " edges");
+		run("write xgmml", elements, new Bench.Task() {
+			public long run() throws Exception {
+				CountingWriter out = new CountingWriter();
+				PrintWriter pw = new PrintWriter(out);
+				XGMMLWriter.write(g, pw);
+				pw.close();
+				return out.chars;
+			}
+		});
+		run("write regin", elements, new Bench.Task() {
+			public long run() throws Exception {
+				CountingOutputStream out = new CountingOutputStream();
+				RegINWriter.write(g, out);
+				return out.bytes;
+			}
+		});
+	}
+
+	// maps n Entrez Gene ids to Ensembl and UniProt, like TransmiR
+	private static long map(IDMapper idm, int n) throws Exception {
+		MappingService mapping = new MappingService(idm);
+		for(int i = 0; i < n; i++) {
+			mapping.request(new Xref("" + (1000 + i), L), EN, S);
+		}
+		mapping.resolve();
+		long mapped = 0;
+		for(int i = 0; i < n; i++) {
+			Xref x = new Xref("" + (1000 + i), L);
+			mapped += mapping.map(x, EN).size() + mapping.map(x, S).size();
+		}
+		return mapped;
+	}
+
+	// runs the benchmark if it matches the filter, the converters don't print while they are measured
+	private static void run(String name, long ops, final Bench.Task task) throws Exception {
+		if(filter != null && !name.contains(filter)) return;
+		final PrintStream out = System.out;
+		Bench.Result r;
+		System.setOut(new PrintStream(new CountingOutputStream()));
+		try {
+			r = Bench.measure(name, ops, task);
+		} finally {
+			System.setOut(out);
+		}
+		System.out.println(r);
+	}
+
+	private static String mb(File f) {
+		return (f.length() >> 20) + " MB";
+	}
+
+	private static class CountingWriter extends Writer {
+		long chars = 0;
+		public void write(char[] cbuf, int off, int len) { chars += len; }
+		public void write(String str, int off, int len) { chars += len; }
+		public void write(int c) { chars++; }
+		public void flush() {}
+		public void close() {}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		long bytes = 0;
+		public void write(byte[] b, int off, int len) throws IOException { bytes += len; }
+		public void write(int b) throws IOException { bytes++; }
+	}
+}
@@ -0,0 +1,177 @@
+package cytargetlinker.conversion.bench;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+import cytargetlinker.conversion.DrugBank4;
+import cytargetlinker.conversion.DrugBankReader;
+import cytargetlinker.conversion.graph.Graph;
+import cytargetlinker.conversion.graph.XGMMLWriter;
+import cytargetlinker.conversion.utils.MappingService;
+
+/**
+ * Converts a generated DrugBank file (see {@link Generators}) with the sequential converter (targets
+ * are prefetched in chunks) and with the pipelined converter using 1 to N
+ * mapping threads. The IDMapper waits for a fixed time per call like a
+ * database query. The networks are compared with the sequential one.
+ * Arguments: number of drugs, maximum number of threads (default: 8),
+ * latency of a mapping call in microseconds (default: 200).
+ * @author Thomas
+ *
+ */
+public class DrugBankPipelineBenchmark {
+
+	private static int drugs = 5000;
+	private static int runs = 3;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0) drugs = Integer.parseInt(args[0]);
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		long latency = args.length > 2 ? Long.parseLong(args[2]) : 200;
+		File input = File.createTempFile("drugbank", ".xml");
+		input.deleteOnExit();
+		Generators.drugBank(input, drugs, 1);
+		System.out.println(drugs + " drugs, " + (input.length() >> 20) + " MB, " + latency + " us per mapping call");
+
+		LatencyIDMapper idm = new LatencyIDMapper(latency * 1000);
+		System.out.println("mode\tthreads\tms\tdrugs/s\tmapping calls");
+		long best = Long.MAX_VALUE;
+		Graph g = null;
+		for(int i = 0; i < runs; i++) {
+			idm.calls = 0;
+			g = new Graph();
+			long start = System.nanoTime();
+			DrugBankReader reader = DrugBankReader.open(input);
+			new DrugBank4().convert(reader, new MappingService(idm), g);
+			reader.close();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		String expected = write(g);
+		report("sequential", 1, best, idm.calls);
+
+		for(int threads = 1; threads <= maxThreads; threads *= 2) {
+			best = Long.MAX_VALUE;
+			for(int i = 0; i < runs; i++) {
+				idm.calls = 0;
+				List<MappingService> mappers = new ArrayList<MappingService>();
+				for(int t = 0; t < threads; t++) {
+					mappers.add(new MappingService(idm));
+				}
+				g = new Graph();
+				long start = System.nanoTime();
+				DrugBankReader reader = DrugBankReader.open(input);
+				new DrugBank4().convert(reader, mappers, g);
+				reader.close();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			if(!expected.equals(write(g))) {
+				throw new IllegalStateException("Different network with " + threads + " threads");
+			}
+			report("pipelined", threads, best, idm.calls);
+		}
+	}
+
+	private static void report(String mode, int threads, long nanos, long calls) {
+		System.out.println(mode + "\t" + threads + "\t" + nanos / 1000000 + "\t" + String.format("%.0f", drugs * 1e9 / nanos) + "\t" + calls);
+	}
+
+	// the graph id (creation time) is left out
+	private static String write(Graph g) throws Exception {
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		XGMMLWriter.write(g, pw);
+		pw.close();
+		String s = sw.toString();
+		int graph = s.indexOf("<graph");
+		return s.substring(0, graph) + s.substring(s.indexOf('>', graph));
+	}
+
+	/**
+	 * Maps UniProt Pn to Ensembl ENSGn and Ensembl ENSGn to Entrez Gene
+	 * 1000+n and UniProt Pn, every call waits for the latency
+	 */
+	static class LatencyIDMapper implements IDMapper {
+		private final static DataSource S = DataSource.getBySystemCode("S");
+		private final static DataSource EN = DataSource.getBySystemCode("En");
+		private final static DataSource L = DataSource.getBySystemCode("L");
+
+		private long latency;
+		volatile long calls = 0;
+
+		LatencyIDMapper(long latencyNanos) {
+			this.latency = latencyNanos;
+		}
+
+		public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+			delay();
+			Map<Xref, Set<Xref>> res = new HashMap<Xref, Set<Xref>>();
+			for(Xref x : srcXrefs) {
+				res.put(x, map(x, tgtDataSources));
+			}
+			return res;
+		}
+
+		public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+			delay();
+			return map(ref, tgtDataSources);
+		}
+
+		private void delay() {
+			synchronized(this) {
+				calls++;
+			}
+			LockSupport.parkNanos(latency);
+		}
+
+		private Set<Xref> map(Xref ref, DataSource... tgt) {
+			Set<Xref> res = new HashSet<Xref>();
+			String id = ref.getId();
+			for(DataSource ds : tgt) {
+				if(ref.getDataSource() == S && ds == EN && id.startsWith("P")) {
+					int n = Integer.parseInt(id.substring(1));
+					// some proteins have no gene
+					if(n % 10 != 0) res.add(new Xref("ENSG" + n, EN));
+				} else if(ref.getDataSource() == EN && id.startsWith("ENSG")) {
+					int n = Integer.parseInt(id.substring(4));
+					if(ds == L) res.add(new Xref("" + (1000 + n), L));
+					if(ds == S) res.add(new Xref("P" + n, S));
+				}
+			}
+			return res;
+		}
+
+		public boolean xrefExists(Xref xref) throws IDMapperException {
+			return true;
+		}
+
+		public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+			return Collections.emptySet();
+		}
+
+		public IDMapperCapabilities getCapabilities() {
+			return null;
+		}
+
+		public void close() throws IDMapperException {}
+
+		public boolean isConnected() {
+			return true;
+		}
+	}
+}
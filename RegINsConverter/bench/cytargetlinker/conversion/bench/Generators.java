@@ -0,0 +1,238 @@
+package cytargetlinker.conversion.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Synthetic inputs for the benchmarks, in the formats of the converters.
+ * The files are written while they are generated, so any scale fits
+ * on disk. Hubs are generated with a skewed degree distribution: with
+ * skew 1 all nodes are equally likely, with higher values a few nodes
+ * get most of the interactions (like TFs with thousands of targets).
+ * All generators use a fixed seed, the same arguments give the same file.
+ *
+ * The genes of the TransmiR and DrugBank files exist in the BridgeDb
+ * database of {@link #bridge(File, int)} with the same number of genes:
+ * gene n has Entrez Gene id 1000+n, Ensembl id ENSGn and UniProt id Pn.
+ * @author Thomas
+ *
+ */
+public class Generators {
+
+	/**
+	 * @return a node index in [0, n), small indices are more likely the higher skew is
+	 */
+	public static int skewed(Random r, int n, double skew) {
+		return Math.min(n - 1, (int)(n * Math.pow(r.nextDouble(), skew)));
+	}
+
+	/**
+	 * @return number of genes for a number of interactions
+	 */
+	public static int genes(int interactions) {
+		return interactions / 20 + 1;
+	}
+
+	/**
+	 * TransmiR file with the columns of TransmiR 1.2, 80% human, 20% mouse interactions.
+	 * TFs are skewed, the genes are {@link #genes(int)} of interactions
+	 */
+	public static void transmir(File f, int interactions, double skew) throws IOException {
+		Random r = new Random(1);
+		int genes = genes(interactions);
+		int mirnas = interactions / 10 + 1;
+		BufferedWriter out = new BufferedWriter(new FileWriter(f), 1 << 16);
+		out.write("gene\tentrezid\ttumor\tmir\ttumor_mir\tmir_func\tmir_disease\tactive\tpmid\torganism\n");
+		for(int i = 0; i < interactions; i++) {
+			int tf = skewed(r, genes, skew);
+			out.write("TF" + tf + "\t" + (1000 + tf) + "\t\tmir-" + r.nextInt(mirnas) + "\t\t\t\t"
+					+ (r.nextBoolean() ? "activation" : "repression") + "\t" + (10000000 + r.nextInt(1000000))
+					+ "\t" + (r.nextInt(5) == 0 ? "mouse" : "human") + "\n");
+		}
+		out.close();
+	}
+
+	/**
+	 * DrugBank 4 XML with up to 5 targets per drug, about half of the drugs
+	 * are approved. Targets are skewed, the proteins are {@link #genes(int)} of drugs * 2.
+	 */
+	public static void drugBank(File f, int drugs, double skew) throws IOException {
+		Random r = new Random(1);
+		int proteins = genes(drugs * 2);
+		BufferedWriter out = new BufferedWriter(new FileWriter(f), 1 << 16);
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<drugbank xmlns=\"http://www.drugbank.ca\" version=\"4.1\">\n");
+		for(int d = 0; d < drugs; d++) {
+			out.write("<drug type=\"small molecule\"><drugbank-id primary=\"true\">DB" + d + "</drugbank-id><name>Drug " + d + "</name>");
+			out.write("<description>A generated drug</description><cas-number>" + d + "-00-1</cas-number>");
+			out.write("<groups><group>" + (r.nextBoolean() ? "approved" : "experimental") + "</group></groups>");
+			out.write("<categories><category><category>Category " + d % 50 + "</category><mesh-id/></category></categories>");
+			out.write("<targets>");
+			int targets = r.nextInt(6);
+			for(int t = 0; t < targets; t++) {
+				int protein = skewed(r, proteins, skew);
+				out.write("<target position=\"" + (t + 1) + "\"><id>BE" + protein + "</id><name>Protein " + protein + "</name><organism>Human</organism>");
+				out.write("<polypeptide id=\"P" + protein + "\" source=\"Swiss-Prot\"><gene-name>GENE" + protein + "</gene-name><external-identifiers>");
+				out.write("<external-identifier><resource>UniProtKB</resource><identifier>P" + protein + "</identifier></external-identifier>");
+				out.write("</external-identifiers></polypeptide></target>");
+			}
+			out.write("</targets><calculated-properties><property><kind>InChIKey</kind><value>InChIKey=KEY" + d + "</value></property></calculated-properties></drug>\n");
+		}
+		out.write("</drugbank>\n");
+		out.close();
+	}
+
+	/**
+	 * miRBase GFF3 file with one or two mature miRNAs per primary transcript,
+	 * every mature miRNA is one interaction
+	 */
+	public static void gff3(File f, int interactions) throws IOException {
+		Random r = new Random(1);
+		BufferedWriter out = new BufferedWriter(new FileWriter(f), 1 << 16);
+		out.write("##gff-version 3\n##date 2014-6-22\n");
+		int mature = 0;
+		for(int mi = 0; mature < interactions; mi++) {
+			int start = 10000 + mi * 200;
+			String chr = "chr" + (mi % 22 + 1) + "\t.\t";
+			out.write(chr + "miRNA_primary_transcript\t" + start + "\t" + (start + 100) + "\t.\t+\t.\tID=MI" + mi
+					+ ";Alias=MI" + mi + ";Name=hsa-mir-" + mi + "\n");
+			int n = Math.min(interactions - mature, 1 + r.nextInt(2));
+			for(int m = 0; m < n; m++, mature++) {
+				out.write(chr + "miRNA\t" + (start + 10 + m * 50) + "\t" + (start + 32 + m * 50) + "\t.\t+\t.\tID=MIMAT" + mature
+						+ ";Alias=MIMAT" + mature + ";Name=hsa-miR-" + mi + (m == 0 ? "-5p" : "-3p") + ";Derives_from=MI" + mi + "\n");
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * tab separated file with a header, the columns source, target
+	 * and attributes a1 to aN. Sources are skewed.
+	 */
+	public static void wideTab(File f, int rows, int attributes, double skew) throws IOException {
+		Random r = new Random(1);
+		int genes = genes(rows);
+		BufferedWriter out = new BufferedWriter(new FileWriter(f), 1 << 16);
+		out.write("source\ttarget");
+		for(int a = 1; a <= attributes; a++) {
+			out.write("\ta" + a);
+		}
+		out.write('\n');
+		for(int i = 0; i < rows; i++) {
+			out.write("ENSG" + skewed(r, genes, skew) + "\tENSG" + r.nextInt(genes));
+			for(int a = 1; a <= attributes; a++) {
+				out.write('\t');
+				// text, numbers and a few distinct values, like annotation columns
+				switch(a % 3) {
+				case 0: out.write("value" + r.nextInt(rows)); break;
+				case 1: out.write(Double.toString(r.nextDouble())); break;
+				default: out.write("type" + r.nextInt(5));
+				}
+			}
+			out.write('\n');
+		}
+		out.close();
+	}
+
+	/**
+	 * BridgeDb Derby database (.bridge) with Entrez Gene (L), Ensembl (En)
+	 * and UniProt (S) ids of the genes. Every gene has an Entrez Gene id,
+	 * 90% have one UniProt id and 10% have two.
+	 */
+	public static void bridge(File f, int genes) throws IOException {
+		File dir = new File(f.getAbsolutePath() + ".db");
+		try {
+			Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+			Connection con = DriverManager.getConnection("jdbc:derby:" + new File(dir, "database").getAbsolutePath() + ";create=true");
+			Statement s = con.createStatement();
+			s.execute("CREATE TABLE info (schemaversion INTEGER, buildDate INTEGER, dataSourceName VARCHAR(50), "
+					+ "dataSourceVersion VARCHAR(50), dataType VARCHAR(50))");
+			s.execute("INSERT INTO info VALUES (3, 20130701, 'generated', '1', 'GeneProduct')");
+			s.execute("CREATE TABLE link (idLeft VARCHAR(50), codeLeft VARCHAR(50), idRight VARCHAR(50), codeRight VARCHAR(50), bridge VARCHAR(50))");
+			s.execute("CREATE TABLE datanode (id VARCHAR(50), code VARCHAR(50))");
+			s.execute("CREATE TABLE attribute (id VARCHAR(50), code VARCHAR(50), attrname VARCHAR(50), attrvalue VARCHAR(255))");
+			s.close();
+			con.setAutoCommit(false);
+			PreparedStatement link = con.prepareStatement("INSERT INTO link VALUES (?, 'En', ?, ?, null)");
+			for(int g = 0; g < genes; g++) {
+				String en = "ENSG" + g;
+				link.setString(1, en);
+				add(link, en, "En");
+				add(link, "" + (1000 + g), "L");
+				add(link, "P" + g, "S");
+				if(g % 10 == 0) add(link, "Q" + g, "S");
+				if(g % 10000 == 0) link.executeBatch();
+			}
+			link.executeBatch();
+			con.commit();
+			link.close();
+			s = con.createStatement();
+			s.execute("CREATE INDEX i_left ON link (idLeft, codeLeft)");
+			s.execute("CREATE INDEX i_right ON link (idRight, codeRight)");
+			s.close();
+			con.commit();
+			con.close();
+			try {
+				DriverManager.getConnection("jdbc:derby:" + new File(dir, "database").getAbsolutePath() + ";shutdown=true");
+			} catch (SQLException e) {
+				// derby always reports a shutdown as exception
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Derby is not on the classpath", e);
+		} catch (SQLException e) {
+			throw new IOException("Could not create the database", e);
+		}
+		// a .bridge file is the zipped database directory
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		zip(zip, dir, "");
+		zip.close();
+		delete(dir);
+	}
+
+	private static void add(PreparedStatement link, String id, String code) throws SQLException {
+		link.setString(2, id);
+		link.setString(3, code);
+		link.addBatch();
+	}
+
+	private static void zip(ZipOutputStream zip, File dir, String prefix) throws IOException {
+		byte [] buf = new byte[1 << 16];
+		for(File f : dir.listFiles()) {
+			String name = prefix + f.getName();
+			if(f.isDirectory()) {
+				zip.putNextEntry(new ZipEntry(name + "/"));
+				zip.closeEntry();
+				zip(zip, f, name + "/");
+			} else {
+				zip.putNextEntry(new ZipEntry(name));
+				InputStream in = new FileInputStream(f);
+				int len;
+				while((len = in.read(buf)) != -1) {
+					zip.write(buf, 0, len);
+				}
+				in.close();
+				zip.closeEntry();
+			}
+		}
+	}
+
+	private static void delete(File f) {
+		if(f.isDirectory()) {
+			for(File c : f.listFiles()) delete(c);
+		}
+		f.delete();
+	}
+}
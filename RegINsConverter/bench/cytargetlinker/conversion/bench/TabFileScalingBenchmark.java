@@ -0,0 +1,90 @@
+package cytargetlinker.conversion.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import cytargetlinker.conversion.TabFileConverter;
+import cytargetlinker.conversion.graph.Graph;
+import cytargetlinker.conversion.graph.XGMMLWriter;
+
+/**
+ * Converts a generated correlation table with {@link TabFileConverter}
+ * using 1 to N threads and reports the speedup. The networks built with
+ * several threads are compared with the single threaded one.
+ * Arguments: number of rows, maximum number of threads (default: cores).
+ * @author Thomas
+ *
+ */
+public class TabFileScalingBenchmark {
+
+	private static int rows = 1000000;
+	private static int runs = 3;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0) rows = Integer.parseInt(args[0]);
+		int cores = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		File input = File.createTempFile("correlation", ".txt");
+		input.deleteOnExit();
+		generate(input);
+		System.out.println(rows + " rows, " + (input.length() >> 20) + " MB");
+
+		String expected = null;
+		double single = 0;
+		System.out.println("threads\tms\tspeedup");
+		for(int threads = 1; threads <= cores; threads *= 2) {
+			Graph g = null;
+			long best = Long.MAX_VALUE;
+			TabFileConverter converter = new TabFileConverter();
+			converter.setSourceIds(Arrays.asList("gene", "entrez"));
+			converter.setTargetIds(Arrays.asList("partner"));
+			converter.setSourceAttributes(Arrays.asList("entrez", "symbol", "chr", "start", "end", "strand", "biotype"));
+			converter.setThreads(threads);
+			for(int i = 0; i < runs; i++) {
+				g = new Graph();
+				long start = System.nanoTime();
+				converter.convert(input, g);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			converter.close();
+			String xgmml = write(g);
+			if(expected == null) {
+				expected = xgmml;
+				single = best;
+			} else if(!expected.equals(xgmml)) {
+				throw new IllegalStateException("Different network with " + threads + " threads");
+			}
+			System.out.println(threads + "\t" + best / 1000000 + "\t" + String.format("%.2f", single / best));
+			if(threads < cores && threads * 2 > cores) threads = cores / 2;
+		}
+	}
+
+	// the graph id (creation time) is left out
+	private static String write(Graph g) throws Exception {
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		XGMMLWriter.write(g, pw);
+		pw.close();
+		String s = sw.toString();
+		int graph = s.indexOf("<graph");
+		return s.substring(0, graph) + s.substring(s.indexOf('>', graph));
+	}
+
+	// gene, 7 gene attributes and the correlated gene
+	private static void generate(File f) throws IOException {
+		Random r = new Random(1);
+		BufferedWriter out = new BufferedWriter(new FileWriter(f));
+		out.write("gene\tentrez\tsymbol\tchr\tstart\tend\tstrand\tbiotype\tpartner\n");
+		for(int i = 0; i < rows; i++) {
+			int gene = r.nextInt(rows / 20 + 1);
+			out.write("ENSG" + gene + "\t" + (1000 + gene) + "\tSYM" + gene + "\tchr" + (gene % 22 + 1) + "\t" + gene * 100
+					+ "\t" + (gene * 100 + 50) + "\t" + (gene % 2 == 0 ? "+" : "-") + "\tprotein_coding\tENSG" + r.nextInt(rows / 20 + 1) + "\n");
+		}
+		out.close();
+	}
+}
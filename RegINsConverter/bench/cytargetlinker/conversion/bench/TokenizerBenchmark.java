@@ -0,0 +1,105 @@
+package cytargetlinker.conversion.bench;
+
+import java.util.Random;
+
+import cytargetlinker.conversion.utils.FieldTokenizer;
+
+/**
+ * Compares {@link FieldTokenizer} with String.split for TransmiR like
+ * lines (10 tab separated columns of which 6 are used) and quoted CSV.
+ * @author Thomas
+ *
+ */
+public class TokenizerBenchmark {
+
+	private static int lines = 100000;
+
+	public static void main(String[] args) throws Exception {
+		final String [] tsv = tsvLines();
+		final String [] csv = csvLines();
+		final int [] used = {0, 1, 3, 7, 8, 9};
+
+		Bench.run("tsv String.split", lines, new Bench.Task() {
+			public long run() {
+				long h = 0;
+				for(String line : tsv) {
+					String [] buffer = line.split("\t");
+					if(buffer.length > 9 && buffer[9].equals("mouse")) {
+						for(int c : used) h += buffer[c].length();
+					}
+				}
+				return h;
+			}
+		});
+		final FieldTokenizer tok = FieldTokenizer.tsv(used);
+		Bench.run("tsv FieldTokenizer (filter in place)", lines, new Bench.Task() {
+			public long run() {
+				long h = 0;
+				for(String line : tsv) {
+					tok.tokenize(line);
+					if(tok.has(9) && tok.equals(9, "mouse")) {
+						for(int c : used) h += tok.length(c);
+					}
+				}
+				return h;
+			}
+		});
+		Bench.run("tsv FieldTokenizer (get)", lines, new Bench.Task() {
+			public long run() {
+				long h = 0;
+				for(String line : tsv) {
+					tok.tokenize(line);
+					if(tok.has(9) && tok.equals(9, "mouse")) {
+						for(int c : used) h += tok.get(c).length();
+					}
+				}
+				return h;
+			}
+		});
+
+		Bench.run("csv String.split", lines, new Bench.Task() {
+			public long run() {
+				long h = 0;
+				for(String line : csv) {
+					String [] buffer = line.split(",");
+					if(buffer.length > 1) h += buffer[0].length() + buffer[1].length();
+				}
+				return h;
+			}
+		});
+		final FieldTokenizer csvTok = FieldTokenizer.csv(0, 1);
+		Bench.run("csv FieldTokenizer (quoted)", lines, new Bench.Task() {
+			public long run() {
+				long h = 0;
+				for(String line : csv) {
+					if(csvTok.tokenize(line) > 1) h += csvTok.get(0).length() + csvTok.get(1).length();
+				}
+				return h;
+			}
+		});
+	}
+
+	//gene	entrezid	tumor	mir	tumor_mir	mir_func	mir_disease	active	pmid	organism
+	private static String [] tsvLines() {
+		Random r = new Random(1);
+		String [] organisms = {"human", "mouse", "rat"};
+		String [] res = new String[lines];
+		for(int i = 0; i < lines; i++) {
+			res[i] = "GENE" + r.nextInt(2000) + "\t" + (10000 + r.nextInt(2000)) + "\tbreast cancer\tmir-" + r.nextInt(700)
+					+ "\tlung cancer\tcell proliferation\tlymphoma\tactivation\t" + (10000000 + r.nextInt(9000000))
+					+ "\t" + organisms[r.nextInt(3)];
+		}
+		return res;
+	}
+
+	// biomart export: ensembl gene, mirbase id, description (sometimes quoted)
+	private static String [] csvLines() {
+		Random r = new Random(1);
+		String [] res = new String[lines];
+		for(int i = 0; i < lines; i++) {
+			res[i] = "ENSG" + (100000 + r.nextInt(900000)) + ",MI" + (1000000 + r.nextInt(9000))
+					+ (i % 3 == 0 ? ",\"microRNA, family " + r.nextInt(100) + "\"" : ",microRNA");
+		}
+		return res;
+	}
+}
@@ -0,0 +1,493 @@
+package cytargetlinker.conversion;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+
+import uk.co.flamingpenguin.jewel.cli.ArgumentValidationException;
+import uk.co.flamingpenguin.jewel.cli.Option;
+import cytargetlinker.conversion.graph.GraphSink;
+import cytargetlinker.conversion.graph.XGMMLWriter;
+import cytargetlinker.conversion.graph.XGMMLWriter.Storage;
+import cytargetlinker.conversion.utils.ArgsParser;
+import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
+import cytargetlinker.conversion.utils.ArgsParser.AHelp;
+import cytargetlinker.conversion.utils.FieldTokenizer;
+import cytargetlinker.conversion.utils.MappingService;
+import cytargetlinker.conversion.utils.PreloadedIDMapper;
+
+/**
+ * Runs the conversions of a manifest in one JVM. The manifest is a tab
+ * delimited file with the columns type, input, organism, bridge, output
+ * and options (lines starting with # are skipped):
+ *
+ * type		mirbase, transmir, drugbank or tab
+ * input	file or URL
+ * organism	organism name used by the resource (transmir)
+ * bridge	BridgeDb .bridge file (transmir, drugbank)
+ * output	the XGMML file
+ * options	key=value pairs (mirbase: biomart=file, transmir: code=mmu,
+ * 			drugbank: threads=4 to map the targets in parallel),
+ * 			for tab the command line options of {@link TabFileConverter}
+ *
+ * Relative paths are resolved against the directory of the manifest.
+ * Jobs run in parallel, the mappings of a .bridge file are loaded once
+ * and shared by all jobs using it.
+ */
+public class BatchConverter {
+
+	public interface Args extends AHelp, AFilesIn {
+		@Option(longName = "threads", defaultValue = "0", description = "Number of conversions that run at the same time (default: number of processors).")
+		public int getThreads();
+
+		@Option(longName = "memory", defaultValue = "0", description = "Memory (MB) the running conversions may use together (default: 80% of the maximum heap).")
+		public int getMemory();
+
+		@Option(longName = "storage", defaultValue = "GRAPH", description = "GRAPH, COLUMNAR or STREAM, see TabFileConverter.")
+		public String getStorage();
+
+		@Option(longName = "sorted", description = "Write the nodes and edges sorted by id, the same input always gives the same file.")
+		public boolean isSorted();
+	}
+
+	// miRBase prefixes of the organism names used by TransmiR
+	private final static Map<String, String> ORGANISM_CODES = new HashMap<String, String>();
+	static {
+		ORGANISM_CODES.put("human", "hsa");
+		ORGANISM_CODES.put("mouse", "mmu");
+		ORGANISM_CODES.put("rat", "rno");
+	}
+
+	// memory used for a download of unknown size
+	private final static int URL_MEMORY = 256;
+
+	public static void main(String[] args) throws Exception {
+		Args a;
+		try {
+			a = ArgsParser.parse(args, Args.class);
+		} catch (ArgumentValidationException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		if(!a.isInput()) {
+			System.err.println("Please specify the manifest (-i).");
+			return;
+		}
+		if(a.isSorted()) XGMMLWriter.setSorted(true);
+		int threads = a.getThreads() > 0 ? a.getThreads() : Runtime.getRuntime().availableProcessors();
+		int memory = a.getMemory() > 0 ? a.getMemory() : (int)(Runtime.getRuntime().maxMemory() * 0.8 / (1 << 20));
+		BatchConverter batch = new BatchConverter(threads, memory, Storage.valueOf(a.getStorage().toUpperCase()));
+		boolean failed = false;
+		try {
+			List<Job> jobs = batch.readManifest(a.getInput());
+			batch.run(jobs);
+			batch.printSummary(jobs);
+			for(Job job : jobs) {
+				if(job.getStatus().startsWith("failed:")) failed = true;
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("[ERROR]\t" + e.getMessage());
+			failed = true;
+		} finally {
+			batch.close();
+		}
+		// scripts running the batch have to see that jobs failed
+		if(failed) System.exit(1);
+	}
+
+	/**
+	 * A line of the manifest and the result of its conversion
+	 */
+	public static class Job {
+		String type;
+		String input;
+		String organism;
+		File bridge;
+		File output;
+		Map<String, String> options = new HashMap<String, String>();
+		List<String> args = new ArrayList<String>();
+
+		String status = "waiting";
+		int nodes = -1;
+		int edges = -1;
+		long time = 0;
+
+		public String getName() {
+			return output.getName();
+		}
+
+		public String getStatus() {
+			return status;
+		}
+
+		public long getTime() {
+			return time;
+		}
+	}
+
+	private int threads;
+	private int memory;
+	private Storage storage;
+	private Semaphore memoryPermits;
+	private ForkJoinPool pool;
+	private Map<File, Future<PreloadedIDMapper>> mappers = new HashMap<File, Future<PreloadedIDMapper>>();
+
+	/**
+	 * @param threads number of jobs that run at the same time
+	 * @param memory memory in MB that the running jobs may use together
+	 */
+	public BatchConverter(int threads, int memory, Storage storage) {
+		this.threads = threads;
+		this.memory = memory;
+		this.storage = storage;
+		memoryPermits = new Semaphore(memory, true);
+		pool = new ForkJoinPool(threads);
+	}
+
+	public List<Job> readManifest(File manifest) throws IOException {
+		File dir = manifest.getAbsoluteFile().getParentFile();
+		List<Job> jobs = new ArrayList<Job>();
+		LineReader lines = MappedLines.open(manifest);
+		FieldTokenizer tok = FieldTokenizer.tsv(FieldTokenizer.range(6));
+		CharSequence line = lines.next();
+		if(line == null) throw new IllegalArgumentException("The manifest " + manifest + " is empty");
+		tok.tokenize(line);
+		List<String> header = new ArrayList<String>();
+		for(int i = 0; i < tok.getFieldCount() && i < 6; i++) {
+			header.add(tok.get(i).trim().toLowerCase());
+		}
+		int type = column(header, "type");
+		int input = column(header, "input");
+		int organism = column(header, "organism");
+		int bridge = column(header, "bridge");
+		int output = column(header, "output");
+		int options = header.indexOf("options");
+
+		while((line = lines.next()) != null) {
+			tok.tokenize(line);
+			if(tok.isEmpty(0) || tok.startsWith(0, "#")) continue;
+			Job job = new Job();
+			job.type = tok.get(type).trim().toLowerCase();
+			job.input = tok.get(input).trim();
+			job.organism = tok.get(organism).trim();
+			String b = tok.get(bridge).trim();
+			if(!b.equals("")) job.bridge = resolve(dir, b);
+			job.output = resolve(dir, tok.get(output).trim());
+			if(options != -1) {
+				for(String o : tok.get(options).trim().split("\\s+")) {
+					if(o.equals("")) continue;
+					job.args.add(o);
+					int eq = o.indexOf('=');
+					if(eq != -1) job.options.put(o.substring(0, eq), o.substring(eq + 1));
+				}
+			}
+			if(!job.input.contains("://")) job.input = resolve(dir, job.input).getPath();
+			if(job.options.containsKey("biomart")) job.options.put("biomart", resolve(dir, job.options.get("biomart")).getPath());
+			if(!job.options.containsKey("code") && ORGANISM_CODES.containsKey(job.organism.toLowerCase())) {
+				job.options.put("code", ORGANISM_CODES.get(job.organism.toLowerCase()));
+			}
+			jobs.add(job);
+		}
+		lines.close();
+		return jobs;
+	}
+
+	private static int column(List<String> header, String name) {
+		int i = header.indexOf(name);
+		if(i == -1) throw new IllegalArgumentException("Column " + name + " is not in the header of the manifest " + header);
+		return i;
+	}
+
+	private static File resolve(File dir, String path) {
+		File f = new File(path);
+		return f.isAbsolute() ? f : new File(dir, path);
+	}
+
+	/**
+	 * runs the jobs and waits until all of them are finished, TransmiR jobs
+	 * with the same input are converted in one pass over the file
+	 */
+	public void run(List<Job> jobs) throws InterruptedException {
+		Map<String, List<Job>> groups = new LinkedHashMap<String, List<Job>>();
+		for(Job job : jobs) {
+			boolean shared = job.type.equals("transmir") && job.options.containsKey("code");
+			String key = shared ? "transmir " + job.input : "job " + groups.size();
+			List<Job> group = groups.get(key);
+			if(group == null) {
+				group = new ArrayList<Job>();
+				groups.put(key, group);
+			}
+			group.add(job);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		for(final List<Job> group : groups.values()) {
+			running.add(executor.submit(new Runnable() {
+				public void run() {
+					runJobs(group);
+				}
+			}));
+		}
+		for(Future<?> f : running) {
+			try {
+				f.get();
+			} catch (Exception e) {
+				// failures are stored in the job
+			}
+		}
+		executor.shutdown();
+	}
+
+	private void runJobs(List<Job> jobs) {
+		long mb = 0;
+		for(Job job : jobs) {
+			mb += estimateMemory(job);
+		}
+		int permits = (int)Math.min(memory, mb);
+		long start = System.currentTimeMillis();
+		try {
+			memoryPermits.acquire(permits);
+			try {
+				for(Job job : jobs) {
+					job.status = "running";
+					System.out.println("[INFO:]\tConvert " + job.type + " " + job.input + " (" + job.getName() + ")");
+				}
+				if(jobs.get(0).type.equals("transmir")) {
+					convertTransmiR(jobs);
+				} else {
+					convert(jobs.get(0));
+				}
+				for(Job job : jobs) {
+					job.status = "done";
+				}
+			} finally {
+				memoryPermits.release(permits);
+			}
+		} catch (Exception e) {
+			for(Job job : jobs) {
+				job.status = "failed: " + e.getMessage();
+				System.out.println("[ERROR]\t" + job.getName() + " could not be converted: " + e.getMessage());
+			}
+		}
+		for(Job job : jobs) {
+			job.time = System.currentTimeMillis() - start;
+			System.out.println("[INFO:]\t" + job.getName() + " " + job.status + " in " + job.time + " ms");
+		}
+	}
+
+	// memory in MB, the networks take about ten times the size of the input
+	private int estimateMemory(Job job) {
+		if(job.input.contains("://")) return URL_MEMORY;
+		// only the approved drugs and their targets are kept
+		if(job.type.equals("drugbank")) return (int)Math.max(16, new File(job.input).length() >> 20);
+		long mb = new File(job.input).length() * 10 >> 20;
+		return (int)Math.max(16, Math.min(Integer.MAX_VALUE, mb));
+	}
+
+	private void convert(Job job) throws Exception {
+		GraphSink sink = null;
+		MappingService mapping = null;
+		boolean closing = false;
+		boolean done = false;
+		try {
+			if(job.type.equals("tab")) {
+				TabFileConverter.Args a = ArgsParser.parse(job.args.toArray(new String[0]), TabFileConverter.Args.class);
+				TabFileConverter converter = TabFileConverter.create(a);
+				converter.setPool(pool);
+				sink = XGMMLWriter.open(job.output, storage);
+				converter.convert(new File(job.input), sink);
+			} else if(job.type.equals("mirbase")) {
+				Map<String, Set<String>> ids = Collections.emptyMap();
+				if(job.options.containsKey("biomart")) {
+					ids = MiRBase.readBiomartFile(new File(job.options.get("biomart")));
+				}
+				MiRBase mirbase = new MiRBase();
+				LineSource lines = mirbase.readFile(url(job.input));
+				try {
+					sink = XGMMLWriter.open(job.output, storage);
+					mirbase.convert(lines, ids, sink);
+				} finally {
+					lines.close();
+				}
+			} else if(job.type.equals("transmir")) {
+				convertTransmiR(Collections.singletonList(job));
+				done = true;
+				return;
+			} else if(job.type.equals("drugbank")) {
+				mapping = mapping(job);
+				DrugBankReader drugs = DrugBankReader.open(new File(job.input));
+				drugs.setGroup("approved");
+				int mappingThreads = job.options.containsKey("threads") ? Integer.parseInt(job.options.get("threads")) : 1;
+				try {
+					sink = XGMMLWriter.open(job.output, storage);
+					if(mappingThreads > 1) {
+						// the preloaded mapper can be used by several threads
+						List<MappingService> mappers = new ArrayList<MappingService>();
+						mappers.add(mapping);
+						for(int i = 1; i < mappingThreads; i++) {
+							mappers.add(new MappingService(mapping.getMapper()));
+						}
+						new DrugBank4().convert(drugs, mappers, sink);
+					} else {
+						new DrugBank4().convert(drugs, mapping, sink);
+					}
+				} finally {
+					drugs.close();
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown type " + job.type);
+			}
+			closing = true;
+			close(job, sink);
+			done = true;
+		} finally {
+			if(!done) discard(job, sink, closing);
+			if(mapping != null) mapping.close();
+		}
+	}
+
+	// TransmiR jobs with the same input, one per organism
+	private void convertTransmiR(List<Job> jobs) throws Exception {
+		List<String> codes = new ArrayList<String>();
+		for(Job job : jobs) {
+			String code = job.options.get("code");
+			if(code == null) throw new IllegalArgumentException("No miRBase prefix for organism " + job.organism + ", use code=...");
+			codes.add(code);
+		}
+		List<MappingService> mappings = new ArrayList<MappingService>();
+		List<GraphSink> sinks = new ArrayList<GraphSink>();
+		List<TransmiR> converters = new ArrayList<TransmiR>();
+		boolean done = false;
+		try {
+			for(int i = 0; i < jobs.size(); i++) {
+				Job job = jobs.get(i);
+				mappings.add(mapping(job));
+				sinks.add(XGMMLWriter.open(job.output, storage));
+				converters.add(new TransmiR(job.organism, codes.get(i), mappings.get(i), sinks.get(i)));
+			}
+			LineSource lines = LineSource.open(url(jobs.get(0).input), null);
+			try {
+				TransmiR.convert(lines, converters);
+			} finally {
+				lines.close();
+			}
+			// the sinks are closed by the conversion, each on the thread of its organism
+			for(int i = 0; i < jobs.size(); i++) {
+				jobs.get(i).nodes = sinks.get(i).getNodeCount();
+				jobs.get(i).edges = sinks.get(i).getEdgeCount();
+			}
+			done = true;
+		} finally {
+			if(!done) {
+				for(int i = 0; i < sinks.size(); i++) {
+					// sinks closed before the failure are closed again, the errors are ignored
+					discard(jobs.get(i), sinks.get(i), false);
+				}
+			}
+			for(MappingService mapping : mappings) {
+				mapping.close();
+			}
+		}
+	}
+
+	private void close(Job job, GraphSink sink) throws IOException {
+		sink.close();
+		job.nodes = sink.getNodeCount();
+		job.edges = sink.getEdgeCount();
+	}
+
+	/**
+	 * closes the sink of a failed job (unless it is closed already) to
+	 * release its temporary files and deletes the partial output
+	 */
+	private static void discard(Job job, GraphSink sink, boolean closed) {
+		if(sink == null) return;
+		if(!closed) {
+			try {
+				sink.close();
+			} catch (Exception e) {
+				// the job failed already
+			}
+		}
+		if(job.output.exists() && !job.output.delete()) {
+			System.out.println("[ERROR]\tCould not delete the partial output " + job.output);
+		}
+	}
+
+	private static URL url(String input) throws IOException {
+		return input.contains("://") ? new URL(input) : new File(input).toURI().toURL();
+	}
+
+	private MappingService mapping(Job job) throws Exception {
+		if(job.bridge == null) throw new IllegalArgumentException("No BridgeDb file for " + job.getName());
+		return new MappingService(mapper(job.bridge));
+	}
+
+	/**
+	 * the mappings of a .bridge file, the first job that needs them loads them
+	 * and the other jobs wait for it
+	 */
+	private PreloadedIDMapper mapper(final File bridge) throws Exception {
+		File key = bridge.getCanonicalFile();
+		FutureTask<PreloadedIDMapper> load = null;
+		Future<PreloadedIDMapper> f;
+		synchronized(mappers) {
+			f = mappers.get(key);
+			if(f == null) {
+				load = new FutureTask<PreloadedIDMapper>(new Callable<PreloadedIDMapper>() {
+					public PreloadedIDMapper call() throws IDMapperException, ClassNotFoundException {
+						Class.forName("org.bridgedb.rdb.IDMapperRdb");
+						PreloadedIDMapper m = PreloadedIDMapper.load(bridge, DataSource.getBySystemCode("L"), DataSource.getBySystemCode("En"), DataSource.getBySystemCode("S"));
+						System.out.println("[INFO:]\t" + bridge.getName() + ": " + m.getReport());
+						return m;
+					}
+				});
+				mappers.put(key, load);
+				f = load;
+			}
+		}
+		if(load != null) load.run();
+		return f.get();
+	}
+
+	public void printSummary(List<Job> jobs) {
+		System.out.println("job\ttype\tstatus\tnodes\tedges\tms");
+		long total = 0;
+		for(Job job : jobs) {
+			System.out.println(job.getName() + "\t" + job.type + "\t" + job.status + "\t" + job.nodes + "\t" + job.edges + "\t" + job.time);
+			total += job.time;
+		}
+		System.out.println("[INFO:]\t" + jobs.size() + " jobs, " + total + " ms conversion time");
+	}
+
+	public void close() {
+		pool.shutdown();
+		synchronized(mappers) {
+			for(Future<PreloadedIDMapper> f : mappers.values()) {
+				try {
+					f.get().close();
+				} catch (Exception e) {
+					// not loaded
+				}
+			}
+			mappers.clear();
+		}
+	}
+}
@@ -2,11 +2,25 @@ package cytargetlinker.conversion;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLStreamException;
 
 import msk.drugbank4.DrugBankParser;
 import msk.drugbank4.DrugModel;
@@ -19,35 +33,112 @@ import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
 import org.jdom.JDOMException;
 
-import cytargetlinker.conversion.graph.Graph;
-import cytargetlinker.conversion.graph.Graph.Edge;
-import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.graph.AttributeHolder;
+import cytargetlinker.conversion.graph.GraphSink;
 import cytargetlinker.conversion.graph.XGMMLWriter;
+import cytargetlinker.conversion.graph.XGMMLWriter.Storage;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.MappingService;
+import cytargetlinker.conversion.utils.PersistentMappingCache;
+import cytargetlinker.conversion.utils.PreloadedIDMapper;
+import cytargetlinker.conversion.utils.RunMetrics;
+import cytargetlinker.conversion.utils.RunMetrics.Counter;
+import cytargetlinker.conversion.utils.RunMetrics.Phase;
 
 public class DrugBank4 {
 
+	// GRAPH or COLUMNAR (compact, for very large networks) collect the network 
+	// in memory, STREAM spools nodes and edges to disk while they are added
+	private static Storage storage = Storage.GRAPH;
+	// keep identifier mapping results next to the BridgeDb database for the next run
+	private static boolean cacheMappings = true;
+	// load the UniProt, Ensembl and Entrez Gene mappings into memory at startup
+	private static boolean preloadMappings = true;
+
+	// read the XML file one drug at a time instead of building the whole document
+	private static boolean streamDrugBank = true;
+	// with more than one thread the targets are mapped in parallel while the
+	// file is read (streamDrugBank), every thread has its own mapping service
+	private static int mappingThreads = 1;
+	// JSON report with the times of the phases, counters and heap usage (null: no report)
+	private static String reportFile = null;
+	// seconds between progress lines, 0: no progress
+	private static int progressInterval = 10;
+
 	public static void main(String[] args) {
 		File drugBankXml = new File("/home/martina/Bigcat/Papers/2014-PLOSBiology-DiabeticLiver/analysis/network-analysis/drug-extension/drugbank.xml");
 		try {
-			System.out.println("[INFO:]\tRead DrugBank XML file");
-			Set<DrugModel> drugs = new DrugBankParser().parse(drugBankXml);
-
-			System.out.println("[INFO:]\t" + drugs.size() + " drugs are loaded.");
-			
+			RunMetrics metrics = new RunMetrics("DrugBank_v4 (approved)");
+			metrics.setProgressInterval(progressInterval);
+			metrics.start();
 			System.out.println("[INFO:]\tSet up identifier mapping.");
 			File bridgeFile = new File("/home/martina/Data/BridgeDb/Hs_Derby_20130701.bridge");
 			Class.forName("org.bridgedb.rdb.IDMapperRdb");  
-			IDMapper mapper = BridgeDb.connect("idmapper-pgdb:" + bridgeFile.getAbsolutePath());
+			IDMapper idm;
+			if(preloadMappings) {
+				PreloadedIDMapper preloaded = PreloadedIDMapper.load(bridgeFile, DataSource.getBySystemCode("S"), DataSource.getBySystemCode("En"), DataSource.getBySystemCode("L"));
+				System.out.println("[INFO:]\t" + preloaded.getReport());
+				idm = preloaded;
+			} else {
+				idm = BridgeDb.connect("idmapper-pgdb:" + bridgeFile.getAbsolutePath());
+			}
+			MappingService mapper = new MappingService(idm);
+			PersistentMappingCache cache = cacheMappings ? PersistentMappingCache.open(bridgeFile) : null;
+			if(cache != null) mapper.setPersistentCache(cache);
+			List<MappingService> mappers = new ArrayList<MappingService>();
+			mappers.add(mapper);
+			for(int i = 1; i < mappingThreads; i++) {
+				// IDMapperRdb connections can't be shared by threads
+				MappingService m = new MappingService(preloadMappings ? idm : BridgeDb.connect("idmapper-pgdb:" + bridgeFile.getAbsolutePath()));
+				if(cache != null) m.setPersistentCache(cache);
+				mappers.add(m);
+			}
 			System.out.println("[INFO:]\tIdentifier mapping.database loaded");
 			
-			System.out.println("[INFO:]\tConvert DrugBank to XGMML graph.");
-			Graph graph = convert(drugs, mapper);
-			writeGraph(graph, new File("/home/martina/Bigcat/Papers/2014-PLOSBiology-DiabeticLiver/analysis/network-analysis/drug-extension/drugbank4.xgmml"));
-			System.out.println("[INFO:]\tConversion is finished with " + graph.getNodes().size() + " nodes and " + graph.getEdges().size() + " edges.");
+			File output = new File("/home/martina/Bigcat/Papers/2014-PLOSBiology-DiabeticLiver/analysis/network-analysis/drug-extension/drugbank4.xgmml");
+			GraphSink sink = XGMMLWriter.open(output, storage);
+			DrugBank4 converter = new DrugBank4();
+			converter.setMetrics(metrics);
+			if(streamDrugBank) {
+				System.out.println("[INFO:]\tRead DrugBank XML file and convert it to XGMML graph.");
+				DrugBankReader reader = DrugBankReader.open(drugBankXml);
+				reader.setGroup("approved");
+				if(mappingThreads > 1) {
+					converter.convert(reader, mappers, sink);
+				} else {
+					converter.convert(reader, mapper, sink);
+				}
+				reader.close();
+				System.out.println("[INFO:]\t" + reader.getDrugCount() + " drugs are read.");
+			} else {
+				System.out.println("[INFO:]\tRead DrugBank XML file");
+				long t = System.nanoTime();
+				Set<DrugModel> drugs = new DrugBankParser().parse(drugBankXml);
+				metrics.stop(Phase.PARSE, t);
+				System.out.println("[INFO:]\t" + drugs.size() + " drugs are loaded.");
+				System.out.println("[INFO:]\tConvert DrugBank to XGMML graph.");
+				converter.convert(drugs, mapper, sink);
+			}
+			long t = System.nanoTime();
+			sink.close();
+			metrics.stop(Phase.WRITE, t);
+			for(MappingService m : mappers) {
+				metrics.add(m);
+			}
+			mapper.close();
+			System.out.println("[INFO:]\tConversion is finished with " + sink.getNodeCount() + " nodes and " + sink.getEdgeCount() + " edges.");
+			for(MappingService m : mappers) {
+				System.out.println("[INFO:]\t" + m.getReport());
+			}
+			if(idm instanceof PreloadedIDMapper) System.out.println("[INFO:]\t" + ((PreloadedIDMapper)idm).getReport());
+			metrics.finish();
+			System.out.println("[INFO:]\t" + metrics.getSummary());
+			if(reportFile != null) metrics.writeReport(new File(reportFile));
 			
 		} catch (JDOMException e) {
 			System.out.println("[ERROR]\tCould not read drug bank file.");
+		} catch (XMLStreamException e) {
+			System.out.println("[ERROR]\tCould not read drug bank file.\t" + e.getMessage());
 		} catch (IOException e) {
 			System.out.println("[ERROR]\tCould not find drug bank file.\t" + drugBankXml.getAbsolutePath());
 		} catch (ClassNotFoundException e) {
@@ -58,99 +149,413 @@ public class DrugBank4 {
 		
 	}
 	
-	private static Set<String> edges = new HashSet<String>();
+	private Set<String> nodes = new HashSet<String>();
+	private RunMetrics metrics = new RunMetrics("DrugBank_v4 (approved)");
 	
-	private static Graph convert(Set<DrugModel> drugs, IDMapper mapper) throws IDMapperException {
-		Graph graph = new Graph();
-		graph.setTitle("DrugBank_v4 (approved)");
-		graph.setAttribute(CommonAttributes.DATABASE.getName(), "DrugBank_v4 (approved)");
-		graph.setAttribute(CommonAttributes.TYPE.getName(), "drug-target interactions");
-		
-		Map<String, Node> nodes = new HashMap<String, Node>();
-		
+	// number of drugs for which the targets are mapped at once
+	private final static int CHUNK_SIZE = 200;
+	
+	/**
+	 * the metrics of the conversion, every drug is one row
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	public RunMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * converts the approved drugs and their targets
+	 */
+	public void convert(Set<DrugModel> drugs, MappingService mapper, GraphSink graph) throws IDMapperException, IOException {
+		addGraph(graph);
+		metrics.count(Counter.ROWS_READ, drugs.size());
+		long t = System.nanoTime();
+		prefetch(drugs, mapper);
+		t = metrics.stop(Phase.MAPPING, t);
+		TargetLookup targets = lookup(mapper);
 		for(DrugModel model : drugs) {
-			if(model.getGroups().contains("approved")) {
-				Node drug = graph.addNode(model.getDrugbankID());
-				String identifiers = "[" + model.getDrugbankID();
-				if(!model.getCasNumber().equals("")) identifiers = identifiers + "," + model.getCasNumber();
-				identifiers = identifiers + "]";
-				drug.appendAttribute("identifiers", identifiers);
-				drug.appendAttribute("label", model.getName());
-				drug.appendAttribute("name", model.getName());
-				drug.appendAttribute("biologicalType", "drug");
-				drug.appendAttribute("cas-number", model.getCasNumber());
-				drug.appendAttribute("inchikey", model.getInChiKey());
-				drug.appendAttribute("categories", model.getCategories().toString());
-				drug.appendAttribute("groups", model.getGroups().toString());
-				drug.appendAttribute("drugbank", model.getDrugbankID());
-				
-				if(!nodes.containsKey(model.getDrugbankID())) {
-					nodes.put(model.getDrugbankID(), drug);
-				} else {
-					System.out.println("ERROR! Multiple nodes with same id!");
+			addDrug(model, targets, graph);
+		}
+		metrics.stop(Phase.BUILD, t);
+	}
+	
+	/**
+	 * converts the approved drugs while they are read, the targets 
+	 * of a few hundred drugs are mapped at once
+	 */
+	public void convert(DrugBankReader drugs, MappingService mapper, GraphSink graph) throws IDMapperException, IOException, XMLStreamException {
+		addGraph(graph);
+		List<DrugModel> chunk = new ArrayList<DrugModel>(CHUNK_SIZE);
+		int skipped = drugs.getDrugCount();
+		DrugModel model;
+		// reading and parsing can't be told apart with StAX, both are parse
+		long t = System.nanoTime();
+		while((model = drugs.next()) != null) {
+			t = metrics.stop(Phase.PARSE, t);
+			metrics.count(Counter.ROWS_READ);
+			skipped++;
+			chunk.add(model);
+			if(chunk.size() == CHUNK_SIZE) {
+				convertChunk(chunk, mapper, graph);
+				t = System.nanoTime();
+			}
+		}
+		metrics.stop(Phase.PARSE, t);
+		countSkipped(drugs.getDrugCount() - skipped);
+		convertChunk(chunk, mapper, graph);
+	}
+	
+	// drugs that the reader skipped because they are not in its group
+	private void countSkipped(int drugs) {
+		metrics.count(Counter.ROWS_READ, drugs);
+		metrics.count(Counter.ROWS_FILTERED, drugs);
+	}
+	
+	// number of drugs that are read ahead of the drug that is added to the graph
+	private final static int QUEUE_SIZE = 1000;
+	private final static DrugModel END = new DrugModel();
+	
+	/**
+	 * converts the approved drugs in a pipeline: the drugs are read on a
+	 * background thread, the targets are mapped on one thread per mapping
+	 * service while the next drugs are read, and the drugs are added to the
+	 * graph in the order of the file. Every UniProt id is mapped once, also
+	 * when it is found again while its mapping is still running. A mapping
+	 * thread takes all ids that are queued and maps them at once, like
+	 * the chunks of {@link #convert(DrugBankReader, MappingService, GraphSink)}.
+	 * @param mappers one for each thread, the IDMapper of the mapping services 
+	 * has to be thread safe (e.g. {@link PreloadedIDMapper}) or each service
+	 * needs its own IDMapper
+	 */
+	public void convert(final DrugBankReader drugs, final List<MappingService> mappers, GraphSink graph) throws IDMapperException, IOException, XMLStreamException {
+		addGraph(graph);
+		
+		final ThreadLocal<MappingService> threadMapper = new ThreadLocal<MappingService>() {
+			private AtomicInteger next = new AtomicInteger();
+			protected MappingService initialValue() {
+				return mappers.get(next.getAndIncrement());
+			}
+		};
+		final ExecutorService workers = Executors.newFixedThreadPool(mappers.size());
+		final ConcurrentHashMap<String, PendingTarget> mapped = new ConcurrentHashMap<String, PendingTarget>();
+		// ids that no thread maps yet, and the mapping tasks that did not start
+		final BlockingQueue<PendingTarget> unmapped = new LinkedBlockingQueue<PendingTarget>();
+		final AtomicInteger waiting = new AtomicInteger();
+		final Runnable mapQueued = new Runnable() {
+			public void run() {
+				waiting.decrementAndGet();
+				List<PendingTarget> batch = new ArrayList<PendingTarget>();
+				while(unmapped.drainTo(batch) > 0) {
+					long t = System.nanoTime();
+					mapTargets(batch, threadMapper.get());
+					metrics.stop(Phase.MAPPING, t);
+					batch.clear();
 				}
-				
-				for(TargetModel target : model.getTargets()) {
-					String uniprot = target.getUniprotId();
-					String ensembl = "";
-					if(!uniprot.equals("")) {
-						Set<Xref> res = mapper.mapID(new Xref(uniprot, DataSource.getBySystemCode("S")), DataSource.getBySystemCode("En"));
-						if(res.size() > 0) {
-							ensembl = res.iterator().next().getId();
-						}
-					}
-					if(!ensembl.equals("")) {
-						Node gene;
-						if(nodes.containsKey(ensembl)) {
-							gene = nodes.get(ensembl);
-						} else {
-							gene = graph.addNode(ensembl);
-							gene.appendAttribute("geneName", target.getGeneName());
-							gene.appendAttribute("proteinName", target.getName());
-							gene.appendAttribute("organism", target.getOrganism());
-							gene.appendAttribute("uniProt", uniprot);
-							gene.appendAttribute("ensembl", ensembl);
-							gene.appendAttribute("biologicalType", "gene");
-							
-							String tIds = "[" + ensembl;
-							Set<Xref> res = mapper.mapID(new Xref(ensembl, DataSource.getBySystemCode("En")), DataSource.getBySystemCode("L"));
-							for(Xref x : res) {
-								tIds = tIds + "," + x.getId();
+			}
+		};
+		final BlockingQueue<DrugModel> queue = new ArrayBlockingQueue<DrugModel>(QUEUE_SIZE);
+		final Throwable [] error = new Throwable[1];
+		final int skipped = drugs.getDrugCount();
+		
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					DrugModel model;
+					long t = System.nanoTime();
+					while((model = drugs.next()) != null) {
+						t = metrics.stop(Phase.PARSE, t);
+						metrics.count(Counter.ROWS_READ);
+						if(model.getGroups().contains("approved")) {
+							boolean queued = false;
+							for(TargetModel target : model.getTargets()) {
+								String uniprot = target.getUniprotId();
+								if(uniprot.equals("") || mapped.containsKey(uniprot)) continue;
+								PendingTarget pending = new PendingTarget(uniprot);
+								mapped.put(uniprot, pending);
+								unmapped.add(pending);
+								queued = true;
 							}
-							Set<Xref> res2 = mapper.mapID(new Xref(ensembl, DataSource.getBySystemCode("En")), DataSource.getBySystemCode("S"));
-							for(Xref x : res2) {
-								tIds = tIds + "," + x.getId();
+							// a task that did not start yet takes these ids as well
+							if(queued && waiting.get() < mappers.size()) {
+								waiting.incrementAndGet();
+								workers.execute(mapQueued);
 							}
-							tIds = tIds + "]";
-							gene.appendAttribute("identifiers", tIds);
 						}
-						nodes.put(ensembl, gene);
-						
-						addEdge(drug, gene, graph);
+						queue.put(model);
+						t = System.nanoTime();
+					}
+					metrics.stop(Phase.PARSE, t);
+				} catch (InterruptedException e) {
+					// the conversion failed, nobody takes the end anymore
+					return;
+				} catch (Throwable e) {
+					// also runtime exceptions and errors, so the file doesn't end silently
+					error[0] = e;
+				}
+				try {
+					// throws at once if interrupted while parsing, the flag is still set then
+					queue.put(END);
+				} catch (InterruptedException e) {
+					// the conversion failed
+				}
+			}
+		}, "DrugBankReader");
+		reader.setDaemon(true);
+		reader.start();
+		
+		TargetLookup targets = new TargetLookup() {
+			public MappedTarget get(String uniprot) throws IDMapperException, IOException {
+				try {
+					return mapped.get(uniprot).get();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while mapping " + uniprot, e);
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof IDMapperException) throw (IDMapperException)e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		};
+		try {
+			DrugModel model;
+			int converted = 0;
+			while((model = queue.take()) != END) {
+				// includes waiting for the mappings of the targets
+				long t = System.nanoTime();
+				addDrug(model, targets, graph);
+				metrics.stop(Phase.BUILD, t);
+				converted++;
+			}
+			Throwable e = error[0];
+			if(e instanceof XMLStreamException) throw (XMLStreamException)e;
+			if(e instanceof RuntimeException) throw (RuntimeException)e;
+			if(e instanceof Error) throw (Error)e;
+			if(e != null) throw new IOException(e);
+			countSkipped(drugs.getDrugCount() - skipped - converted);
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while converting", e);
+		} finally {
+			reader.interrupt();
+			workers.shutdownNow();
+		}
+	}
+	
+	private void convertChunk(List<DrugModel> chunk, MappingService mapper, GraphSink graph) throws IDMapperException, IOException {
+		long t = System.nanoTime();
+		prefetch(chunk, mapper);
+		t = metrics.stop(Phase.MAPPING, t);
+		TargetLookup targets = lookup(mapper);
+		for(DrugModel model : chunk) {
+			addDrug(model, targets, graph);
+		}
+		chunk.clear();
+		metrics.stop(Phase.BUILD, t);
+	}
+	
+	private void addGraph(GraphSink graph) throws IOException {
+		AttributeHolder graphAttributes = new AttributeHolder();
+		graphAttributes.setAttribute(CommonAttributes.DATABASE.getName(), "DrugBank_v4 (approved)");
+		graphAttributes.setAttribute(CommonAttributes.TYPE.getName(), "drug-target interactions");
+		graph.graph("DrugBank_v4 (approved)", graphAttributes);
+	}
+	
+	private void addDrug(DrugModel model, TargetLookup targets, GraphSink graph) throws IDMapperException, IOException {
+		if(model.getGroups().contains("approved")) {
+			String drug = model.getDrugbankID();
+			AttributeHolder drugAttr = new AttributeHolder();
+			drugAttr.addToList("identifiers", model.getDrugbankID());
+			if(!model.getCasNumber().equals("")) drugAttr.addToList("identifiers", model.getCasNumber());
+			drugAttr.appendAttribute("label", model.getName());
+			drugAttr.appendAttribute("name", model.getName());
+			drugAttr.appendAttribute("biologicalType", "drug");
+			drugAttr.appendAttribute("cas-number", model.getCasNumber());
+			drugAttr.appendAttribute("inchikey", model.getInChiKey());
+			for(String category : model.getCategories()) {
+				drugAttr.addToList("categories", category);
+			}
+			for(String group : model.getGroups()) {
+				drugAttr.addToList("groups", group);
+			}
+			drugAttr.appendAttribute("drugbank", model.getDrugbankID());
+			graph.node(drug, drugAttr);
+			metrics.count(Counter.NODES);
+			
+			if(!nodes.contains(drug)) {
+				nodes.add(drug);
+			} else {
+				System.out.println("ERROR! Multiple nodes with same id!");
+			}
+			
+			for(TargetModel target : sortedTargets(model)) {
+				String uniprot = target.getUniprotId();
+				if(uniprot.equals("")) continue;
+				MappedTarget mapped = targets.get(uniprot);
+				String ensembl = mapped.ensembl;
+				if(!ensembl.equals("")) {
+					if(!nodes.contains(ensembl)) {
+						AttributeHolder gene = new AttributeHolder();
+						gene.appendAttribute("geneName", target.getGeneName());
+						gene.appendAttribute("proteinName", target.getName());
+						gene.appendAttribute("organism", target.getOrganism());
+						gene.appendAttribute("uniProt", uniprot);
+						gene.appendAttribute("ensembl", ensembl);
+						gene.appendAttribute("biologicalType", "gene");
 						
+						for(String id : mapped.identifiers) {
+							gene.addToList("identifiers", id);
+						}
+						graph.node(ensembl, gene);
+						metrics.count(Counter.NODES);
 					}
-					
-					
+					nodes.add(ensembl);
+					addEdge(drug, ensembl, graph);
 				}
 			}
+		} else {
+			metrics.count(Counter.ROWS_FILTERED);
+		}
+	}
+	
+	// the targets are a HashSet of objects without hashCode, their order 
+	// would depend on the thread that created them
+	private static List<TargetModel> sortedTargets(DrugModel model) {
+		List<TargetModel> targets = new ArrayList<TargetModel>(model.getTargets());
+		Collections.sort(targets, new Comparator<TargetModel>() {
+			public int compare(TargetModel a, TargetModel b) {
+				int c = a.getDrugbankId().compareTo(b.getDrugbankId());
+				return c != 0 ? c : a.getUniprotId().compareTo(b.getUniprotId());
+			}
+		});
+		return targets;
+	}
+	
+	/**
+	 * The Ensembl gene of a UniProt id and the identifiers of the gene
+	 * (Ensembl, Entrez Gene and UniProt)
+	 */
+	private static class MappedTarget {
+		String ensembl = "";
+		List<String> identifiers = new ArrayList<String>();
+	}
+	
+	private interface TargetLookup {
+		public MappedTarget get(String uniprot) throws IDMapperException, IOException;
+	}
+	
+	/**
+	 * The mapping of a UniProt id that is set by the thread that maps it
+	 */
+	private static class PendingTarget extends FutureTask<MappedTarget> {
+		String uniprot;
+		
+		PendingTarget(String uniprot) {
+			super(new Callable<MappedTarget>() {
+				public MappedTarget call() {
+					throw new IllegalStateException("Set by mapTargets");
+				}
+			});
+			this.uniprot = uniprot;
 		}
 		
-		return graph;
+		protected void set(MappedTarget target) {
+			super.set(target);
+		}
+		
+		protected void setException(Throwable t) {
+			super.setException(t);
+		}
 	}
 	
-	private static void addEdge(Node drug, Node gene, Graph graph) {
-		String id = drug.getId() + "-" + gene.getId();
-		if(!edges.contains(id)) {
-			Edge e = graph.addEdge(id, drug, gene);
-			e.setAttribute("datasource", "DrugBank_v4 (approved)");
-			e.setAttribute("interactionType", "drug-target");
+	// maps the ids at once with the mapping service of the thread
+	private static void mapTargets(List<PendingTarget> targets, MappingService mapper) {
+		try {
+			List<String> uniprot = new ArrayList<String>();
+			for(PendingTarget target : targets) {
+				uniprot.add(target.uniprot);
+			}
+			prefetchTargets(uniprot, mapper);
+			for(PendingTarget target : targets) {
+				target.set(mapTarget(target.uniprot, mapper));
+			}
+		} catch (Throwable e) {
+			// the drugs with these targets fail, not the mapping thread
+			for(PendingTarget target : targets) {
+				target.setException(e);
+			}
+		}
+	}
+	
+	private static MappedTarget mapTarget(String uniprot, MappingService mapper) throws IDMapperException {
+		MappedTarget mapped = new MappedTarget();
+		Set<Xref> res = mapper.map(new Xref(uniprot, DataSource.getBySystemCode("S")), DataSource.getBySystemCode("En"));
+		if(res.size() > 0) {
+			mapped.ensembl = res.iterator().next().getId();
+			mapped.identifiers.add(mapped.ensembl);
+			Xref ensembl = new Xref(mapped.ensembl, DataSource.getBySystemCode("En"));
+			for(Xref x : mapper.map(ensembl, DataSource.getBySystemCode("L"))) {
+				mapped.identifiers.add(x.getId());
+			}
+			for(Xref x : mapper.map(ensembl, DataSource.getBySystemCode("S"))) {
+				mapped.identifiers.add(x.getId());
+			}
+		}
+		return mapped;
+	}
+	
+	// the targets are mapped with the mapper when the drug is added
+	private static TargetLookup lookup(final MappingService mapper) {
+		return new TargetLookup() {
+			public MappedTarget get(String uniprot) throws IDMapperException {
+				return mapTarget(uniprot, mapper);
+			}
+		};
+	}
+	
+	/**
+	 * maps the targets of all approved drugs to Ensembl and 
+	 * the Ensembl genes to Entrez and UniProt at once
+	 */
+	private void prefetch(Collection<DrugModel> drugs, MappingService mapper) throws IDMapperException {
+		List<String> uniprot = new ArrayList<String>();
+		for(DrugModel model : drugs) {
+			if(model.getGroups().contains("approved")) {
+				for(TargetModel target : model.getTargets()) {
+					if(!target.getUniprotId().equals("")) uniprot.add(target.getUniprotId());
+				}
+			}
+		}
+		prefetchTargets(uniprot, mapper);
+	}
+	
+	// the mappings that mapTarget needs for the UniProt ids
+	private static void prefetchTargets(Collection<String> uniprot, MappingService mapper) throws IDMapperException {
+		List<Xref> xrefs = new ArrayList<Xref>();
+		for(String id : uniprot) {
+			Xref x = new Xref(id, DataSource.getBySystemCode("S"));
+			xrefs.add(x);
+			mapper.request(x, DataSource.getBySystemCode("En"));
+		}
+		mapper.resolve();
+		for(Xref x : xrefs) {
+			Set<Xref> res = mapper.map(x, DataSource.getBySystemCode("En"));
+			if(res.size() > 0) {
+				mapper.request(new Xref(res.iterator().next().getId(), DataSource.getBySystemCode("En")), 
+						DataSource.getBySystemCode("L"), DataSource.getBySystemCode("S"));
+			}
 		}
+		mapper.resolve();
 	}
 	
-	private static void writeGraph(Graph graph, File output) throws IOException {
-		PrintWriter po = new PrintWriter(output);
-		XGMMLWriter.write(graph, po);
-		po.close();
+	private void addEdge(String drug, String gene, GraphSink graph) throws IOException {
+		AttributeHolder e = new AttributeHolder();
+		e.setAttribute("datasource", "DrugBank_v4 (approved)");
+		e.setAttribute("interactionType", "drug-target");
+		// the sink keeps one edge per drug and gene, the id is source-target
+		int edges = graph.getEdgeCount();
+		graph.edge(null, drug, gene, e);
+		if(graph.getEdgeCount() > edges) metrics.count(Counter.EDGES);
 	}
 
 }
@@ -0,0 +1,205 @@
+package cytargetlinker.conversion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import msk.drugbank4.DrugModel;
+import msk.drugbank4.TargetModel;
+import cytargetlinker.conversion.utils.Compression;
+
+/**
+ * Reads the drugs of a DrugBank 4 XML file one at a time with StAX, so
+ * the file is never loaded completely (DrugBankParser builds a JDOM tree
+ * of the whole file). The drugs and targets get the same values as with
+ * DrugBankParser. Drugs that are not in the group set with
+ * {@link #setGroup(String)} are skipped as soon as their groups are read.
+ * A compressed file is decompressed while it is read.
+ * @author Thomas
+ *
+ */
+public class DrugBankReader {
+
+	private InputStream in;
+	private XMLStreamReader xml;
+	private String group;
+	private int depth = 0;
+	private int drugCount = 0;
+
+	// names of the elements between the drug and the current element
+	private List<String> path = new ArrayList<String>();
+
+	public DrugBankReader(InputStream in) throws XMLStreamException {
+		this.in = in;
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xml = factory.createXMLStreamReader(in);
+	}
+
+	public static DrugBankReader open(File drugBankXml) throws IOException, XMLStreamException {
+		return new DrugBankReader(Compression.open(drugBankXml));
+	}
+
+	/**
+	 * @param group only drugs in this group (e.g. approved) are returned
+	 */
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	/**
+	 * @return the next drug (of the group) or null at the end of the file
+	 */
+	public DrugModel next() throws XMLStreamException {
+		while(xml.hasNext()) {
+			int event = xml.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				// only the drugs directly in the root element, like DrugBankParser
+				if(depth == 2 && xml.getLocalName().equals("drug")) {
+					DrugModel drug = readDrug();
+					depth--;
+					drugCount++;
+					if(drug != null) return drug;
+				}
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of drugs read so far, including skipped drugs
+	 */
+	public int getDrugCount() {
+		return drugCount;
+	}
+
+	public void close() throws IOException {
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			// the stream is closed below
+		}
+		in.close();
+	}
+
+	// reads the elements of a drug until its end element, null if the drug is not in the group
+	private DrugModel readDrug() throws XMLStreamException {
+		DrugModel drug = new DrugModel();
+		TargetModel target = null;
+		boolean polypeptide = false;
+		String kind = null;
+		String value = null;
+		String resource = null;
+		String identifier = null;
+		path.clear();
+		while(true) {
+			int event = xml.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				path.add(xml.getLocalName());
+				if(at("drugbank-id")) {
+					String id = text();
+					// the first id is the primary id
+					if(drug.getDrugbankID().equals("")) drug.setDrugbankID(id);
+				} else if(at("name")) {
+					drug.setName(text());
+				} else if(at("cas-number")) {
+					drug.setCasNumber(text());
+				} else if(at("groups", "group")) {
+					drug.getGroups().add(text());
+				} else if(at("categories", "category", "category")) {
+					drug.getCategories().add(text());
+				} else if(at("calculated-properties", "property", "kind")) {
+					kind = text();
+				} else if(at("calculated-properties", "property", "value")) {
+					value = text();
+				} else if(at("targets", "target")) {
+					target = new TargetModel();
+					polypeptide = false;
+				} else if(at("targets", "target", "id")) {
+					target.setDrugbankId(text());
+				} else if(at("targets", "target", "name")) {
+					target.setName(text());
+				} else if(at("targets", "target", "organism")) {
+					target.setOrganism(text());
+				} else if(at("targets", "target", "polypeptide") && polypeptide) {
+					// only the first polypeptide of a target is used
+					skip();
+				} else if(at("targets", "target", "polypeptide", "gene-name")) {
+					target.setGeneName(text());
+				} else if(at("targets", "target", "polypeptide", "external-identifiers", "external-identifier", "resource")) {
+					resource = text();
+				} else if(at("targets", "target", "polypeptide", "external-identifiers", "external-identifier", "identifier")) {
+					identifier = text();
+				}
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				if(path.isEmpty()) {
+					return group == null || drug.getGroups().contains(group) ? drug : null;
+				}
+				if(at("groups") && group != null && !drug.getGroups().contains(group)) {
+					path.clear();
+					skip();
+					return null;
+				} else if(at("calculated-properties", "property")) {
+					if("InChIKey".equals(kind) && drug.getInChiKey().equals("") && value != null) {
+						drug.setInChiKey(value.startsWith("InChIKey=") ? value.substring(9) : value);
+					}
+					kind = null;
+					value = null;
+				} else if(at("targets", "target", "polypeptide")) {
+					polypeptide = true;
+				} else if(at("targets", "target", "polypeptide", "external-identifiers", "external-identifier")) {
+					if("UniProtKB".equals(resource) && identifier != null) {
+						target.setUniprotId(identifier);
+					}
+					resource = null;
+					identifier = null;
+				} else if(at("targets", "target")) {
+					drug.getTargets().add(target);
+					target = null;
+				}
+				path.remove(path.size() - 1);
+			}
+		}
+	}
+
+	private boolean at(String... names) {
+		if(path.size() != names.length) return false;
+		for(int i = names.length - 1; i >= 0; i--) {
+			if(!path.get(i).equals(names[i])) return false;
+		}
+		return true;
+	}
+
+	// text of the current element, the reader is then at its end element
+	private String text() throws XMLStreamException {
+		String text = xml.getElementText();
+		path.remove(path.size() - 1);
+		return text;
+	}
+
+	// skips the rest of the current element including its end element
+	private void skip() throws XMLStreamException {
+		int nested = 0;
+		while(true) {
+			int event = xml.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				nested++;
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				if(nested == 0) break;
+				nested--;
+			}
+		}
+		if(!path.isEmpty()) path.remove(path.size() - 1);
+	}
+}
@@ -0,0 +1,549 @@
+package cytargetlinker.conversion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import cytargetlinker.conversion.graph.AttributeHolder;
+import cytargetlinker.conversion.graph.GraphSink;
+import cytargetlinker.conversion.graph.ValueList;
+import cytargetlinker.conversion.graph.XGMMLReader;
+import cytargetlinker.conversion.graph.XGMMLWriter;
+import cytargetlinker.conversion.graph.XGMMLWriter.Storage;
+import cytargetlinker.conversion.utils.ArgsParser;
+
+/**
+ * Rebuilds a xgmml network from a new release of a resource by converting
+ * only what changed since the previous build. The converter registers
+ * every input record (line) with its keys before the graph is started: the
+ * ids of the nodes and the keys ({@link #edgeKey(String, String)}) of the 
+ * edges the record adds or changes, and of the nodes its result depends on.
+ * A node that is only added by the first record with its id is a key of
+ * that record only. The records are compared by a 64 bit fingerprint of
+ * the record and its keys with the records of the previous build (stored
+ * next to the output in output.fingerprints), the keys of new, changed and
+ * removed records are dirty.
+ *
+ * All other nodes and edges of the records are copied from the previous
+ * output, the converter only converts (and maps) the records for which
+ * {@link #isChanged(int)} is true, the records with a dirty key. What it
+ * adds to copied nodes and edges is ignored. The result is the network a
+ * full conversion of the new release gives. When the build is closed the
+ * changes (nodes and edges added, removed and with other attributes) are
+ * written to output.changes.tsv.
+ *
+ * The context (e.g. the mapping database, see {@link #context(Object...)})
+ * is stored with the fingerprints, if it differs nothing is copied. The
+ * network is written to a temporary file next to the output that replaces
+ * the output when the build is closed, if the build fails the previous
+ * output is kept.
+ * @author Thomas
+ *
+ */
+public class IncrementalBuild implements GraphSink {
+	private final static int VERSION = 1;
+	private final static long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private File output;
+	private File previous;
+	private File temp;
+	private File fingerprintFile;
+	private File changesFile;
+	private String context;
+	private GraphSink target;
+	private boolean started = false;
+
+	// records of this build
+	private long [] fingerprints = new long[1024];
+	private List<String[]> keys = new ArrayList<String[]>();
+	private BitSet changed = new BitSet();
+	private int addedRecords = 0;
+	private int removedRecords = 0;
+
+	// records of the previous build, null if there are none for the context
+	private long [] previousFingerprints;
+	private List<String[]> previousKeys;
+
+	// ids of dirty nodes and keys of dirty edges
+	private Set<String> dirty = new HashSet<String>();
+	private Set<String> copiedNodes = new HashSet<String>();
+	private Set<String> copiedEdges = new HashSet<String>();
+
+	// nodes and edges of the previous output, attributes of the dirty ones
+	private Set<String> previousNodes = new HashSet<String>();
+	private Set<String> previousEdges = new HashSet<String>();
+	private Map<String, Map<String, Object>> previousValues = new HashMap<String, Map<String, Object>>();
+
+	private int nodesAdded, nodesRemoved, nodesChanged;
+	private int edgesAdded, edgesRemoved, edgesChanged;
+
+	/**
+	 * opens a temporary file next to the output for the new network
+	 * @param output xgmml file, gzip compressed if the name ends with .gz
+	 * @param context everything besides the records the conversion depends on
+	 */
+	public IncrementalBuild(File output, Storage storage, String context) throws IOException {
+		String format = ArgsParser.getFormat(output);
+		if(format != null && !format.equals(ArgsParser.XGMML_FORMAT)) {
+			throw new IllegalArgumentException("Incremental builds are only supported for xgmml output, not " + output.getName());
+		}
+		this.output = output;
+		this.context = context;
+		fingerprintFile = new File(output.getPath() + ".fingerprints");
+		changesFile = new File(output.getPath() + ".changes.tsv");
+		if(output.exists()) {
+			previous = output;
+			readFingerprints();
+		}
+		// ends with the name of the output, so it is compressed the same way
+		temp = File.createTempFile(".incremental", "-" + output.getName(), output.getAbsoluteFile().getParentFile());
+		temp.deleteOnExit();
+		target = XGMMLWriter.open(temp, storage);
+	}
+
+	/**
+	 * @return the context of files (path, size and modification time) and other values
+	 */
+	public static String context(Object... parts) {
+		StringBuilder sb = new StringBuilder();
+		for(Object o : parts) {
+			if(sb.length() > 0) sb.append('\t');
+			if(o instanceof File) {
+				File f = (File)o;
+				sb.append(f.getAbsolutePath()).append(':').append(f.length()).append(':').append(f.lastModified());
+			} else {
+				sb.append(o);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the key of the edge from src to tgt used by {@link #record(CharSequence, String...)}
+	 */
+	public static String edgeKey(String src, String tgt) {
+		return src + "\t" + tgt;
+	}
+
+	/**
+	 * registers an input record, has to be called for all records before the graph is started
+	 * @param keys ids of the nodes and keys of the edges of the record
+	 * @return the index of the record
+	 */
+	public int record(CharSequence record, String... keys) {
+		if(started) throw new IllegalStateException("Records have to be added before the graph is started.");
+		int i = this.keys.size();
+		if(i == fingerprints.length) fingerprints = Arrays.copyOf(fingerprints, i * 2);
+		long f = fingerprint(FNV_OFFSET, record);
+		for(String k : keys) {
+			f = fingerprint(fingerprint(f, "\0"), k);
+		}
+		fingerprints[i] = f;
+		this.keys.add(keys);
+		return i;
+	}
+
+	/**
+	 * @return true if the record has to be converted, known when the graph is started
+	 */
+	public boolean isChanged(int record) {
+		if(!started) throw new IllegalStateException("Records are compared when the graph is started.");
+		return changed.get(record);
+	}
+
+	/**
+	 * @return true if the node is copied from the previous output
+	 */
+	public boolean isCopied(String id) {
+		return copiedNodes.contains(id);
+	}
+
+	public int getRecordCount() {
+		return keys.size();
+	}
+
+	public int getChangedCount() {
+		return changed.cardinality();
+	}
+
+	public File getChangesFile() {
+		return changesFile;
+	}
+
+	/**
+	 * @return the number of records converted and the changes of the network
+	 */
+	public String getReport() {
+		return "Incremental build: " + getChangedCount() + " of " + getRecordCount() + " records converted ("
+				+ addedRecords + " new or changed, " + removedRecords + " removed), nodes "
+				+ nodesAdded + " added, " + nodesRemoved + " removed, " + nodesChanged + " changed, edges "
+				+ edgesAdded + " added, " + edgesRemoved + " removed, " + edgesChanged + " changed";
+	}
+
+	/**
+	 * starts the graph, compares the records and copies the nodes that
+	 * did not change from the previous output
+	 */
+	public void graph(String title, AttributeHolder attributes) throws IOException {
+		if(started) {
+			throw new IllegalStateException("Graph attributes have to be set before the first node or edge.");
+		}
+		target.graph(title, attributes);
+		started = true;
+		Set<String> clean = compare();
+		if(previous != null) {
+			copy(new Copy(clean));
+		}
+		// records of nodes and edges missing in the previous output are converted 
+		// again, what they add to the copied nodes and edges is still ignored
+		for(String k : clean) {
+			if(!copiedNodes.contains(k) && !copiedEdges.contains(k)) dirty.add(k);
+		}
+		for(int i = 0; i < keys.size(); i++) {
+			if(changed.get(i)) continue;
+			for(String k : keys.get(i)) {
+				if(dirty.contains(k)) {
+					changed.set(i);
+					break;
+				}
+			}
+		}
+	}
+
+	public void node(String id, AttributeHolder attributes) throws IOException {
+		if(!started) graph("", new AttributeHolder());
+		if(!copiedNodes.contains(id)) target.node(id, attributes);
+	}
+
+	public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException {
+		if(!started) graph("", new AttributeHolder());
+		if(!copiedEdges.contains(edgeKey(src, tgt))) target.edge(id, src, tgt, attributes);
+	}
+
+	public int getNodeCount() {
+		return target.getNodeCount();
+	}
+
+	public int getEdgeCount() {
+		return target.getEdgeCount();
+	}
+
+	/**
+	 * copies the edges that did not change, replaces the output with
+	 * the new network and writes the changes and the fingerprints
+	 */
+	public void close() throws IOException {
+		if(!started) graph("", new AttributeHolder());
+		if(previous != null && !copiedEdges.isEmpty()) {
+			copy(new GraphSinkAdapter() {
+				public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException {
+					if(copiedEdges.contains(edgeKey(src, tgt))) target.edge(id, src, tgt, attributes);
+				}
+			});
+		}
+		try {
+			target.close();
+			// without fingerprints the next build converts everything
+			fingerprintFile.delete();
+			if(!temp.renameTo(output)) {
+				output.delete();
+				if(!temp.renameTo(output)) throw new IOException("Can not replace " + output + " with " + temp);
+			}
+		} finally {
+			temp.delete();
+		}
+		writeChanges();
+		writeFingerprints();
+	}
+
+	// matches the records with the previous ones, returns the keys that stay the same
+	private Set<String> compare() {
+		Map<Long, Integer> unmatched = new HashMap<Long, Integer>();
+		if(previousFingerprints != null) {
+			for(long f : previousFingerprints) {
+				Integer n = unmatched.get(f);
+				unmatched.put(f, n == null ? 1 : n + 1);
+			}
+		}
+		for(int i = 0; i < keys.size(); i++) {
+			Integer n = unmatched.get(fingerprints[i]);
+			if(n != null && n > 0) {
+				unmatched.put(fingerprints[i], n - 1);
+			} else {
+				changed.set(i);
+				addedRecords++;
+				dirty.addAll(Arrays.asList(keys.get(i)));
+			}
+		}
+		if(previousFingerprints != null) {
+			for(int i = 0; i < previousFingerprints.length; i++) {
+				Integer n = unmatched.get(previousFingerprints[i]);
+				if(n > 0) {
+					unmatched.put(previousFingerprints[i], n - 1);
+					removedRecords++;
+					dirty.addAll(Arrays.asList(previousKeys.get(i)));
+				}
+			}
+			previousFingerprints = null;
+			previousKeys = null;
+		}
+		// records with a dirty key are converted again, so all their keys are dirty
+		boolean more = true;
+		while(more) {
+			more = false;
+			for(int i = 0; i < keys.size(); i++) {
+				if(changed.get(i)) continue;
+				for(String k : keys.get(i)) {
+					if(dirty.contains(k)) {
+						changed.set(i);
+						dirty.addAll(Arrays.asList(keys.get(i)));
+						more = true;
+						break;
+					}
+				}
+			}
+		}
+		Set<String> clean = new HashSet<String>();
+		for(String [] k : keys) {
+			for(String s : k) {
+				if(!dirty.contains(s)) clean.add(s);
+			}
+		}
+		return clean;
+	}
+
+	/**
+	 * Copies the nodes that did not change to the output and collects
+	 * the nodes and edges of the previous output
+	 */
+	private class Copy extends GraphSinkAdapter {
+		Set<String> clean;
+
+		Copy(Set<String> clean) {
+			this.clean = clean;
+		}
+
+		public void node(String id, AttributeHolder attributes) throws IOException {
+			previousNodes.add(id);
+			if(clean.contains(id)) {
+				target.node(id, attributes);
+				copiedNodes.add(id);
+			} else if(dirty.contains(id)) {
+				previousValues.put(id, values(attributes));
+			}
+		}
+
+		public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException {
+			String key = edgeKey(src, tgt);
+			previousEdges.add(key);
+			if(clean.contains(key)) {
+				// the nodes are written first, the edge is copied when the build is closed
+				copiedEdges.add(key);
+			} else if(dirty.contains(key)) {
+				previousValues.put(key, values(attributes));
+			}
+		}
+	}
+
+	private void copy(GraphSink sink) throws IOException {
+		XGMMLReader reader = XGMMLReader.open(previous);
+		try {
+			reader.copyTo(sink);
+		} finally {
+			reader.close();
+		}
+	}
+
+	// compares the new output with the previous one, attributes only of dirty nodes and edges
+	private void writeChanges() throws IOException {
+		final Set<String> nodes = new HashSet<String>();
+		final Set<String> edges = new HashSet<String>();
+		final Set<String> changedNodes = new TreeSet<String>();
+		final Set<String> changedEdges = new TreeSet<String>();
+		final Map<String, String> changedNames = new HashMap<String, String>();
+		XGMMLReader reader = XGMMLReader.open(output);
+		try {
+			reader.copyTo(new GraphSinkAdapter() {
+				public void node(String id, AttributeHolder attributes) {
+					nodes.add(id);
+					compareValues(id, attributes, changedNodes);
+				}
+
+				public void edge(String id, String src, String tgt, AttributeHolder attributes) {
+					String key = edgeKey(src, tgt);
+					edges.add(key);
+					compareValues(key, attributes, changedEdges);
+				}
+
+				private void compareValues(String key, AttributeHolder attributes, Set<String> changed) {
+					Map<String, Object> before = previousValues.get(key);
+					if(before == null) return;
+					Set<String> names = new TreeSet<String>(before.keySet());
+					Map<String, Object> after = values(attributes);
+					names.addAll(after.keySet());
+					StringBuilder sb = new StringBuilder();
+					for(String n : names) {
+						Object a = before.get(n);
+						Object b = after.get(n);
+						if(a == null ? b != null : !a.equals(b)) {
+							if(sb.length() > 0) sb.append(", ");
+							sb.append(n);
+						}
+					}
+					if(sb.length() > 0) {
+						changed.add(key);
+						changedNames.put(key, sb.toString());
+					}
+				}
+			});
+		} finally {
+			reader.close();
+		}
+
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(changesFile), "UTF-8")));
+		try {
+			out.println("change\telement\tid\ttarget\tattributes");
+			nodesAdded = print(out, "added", "node", difference(nodes, previousNodes), null);
+			nodesRemoved = print(out, "removed", "node", difference(previousNodes, nodes), null);
+			nodesChanged = print(out, "changed", "node", changedNodes, changedNames);
+			edgesAdded = print(out, "added", "edge", difference(edges, previousEdges), null);
+			edgesRemoved = print(out, "removed", "edge", difference(previousEdges, edges), null);
+			edgesChanged = print(out, "changed", "edge", changedEdges, changedNames);
+		} finally {
+			out.close();
+		}
+	}
+
+	// edges are printed as source and target
+	private static int print(PrintWriter out, String change, String element, Set<String> keys, Map<String, String> names) {
+		for(String k : keys) {
+			String [] ids = element.equals("edge") ? k.split("\t", 2) : new String[] { k, "" };
+			out.println(change + "\t" + element + "\t" + ids[0] + "\t" + ids[1] + "\t" + (names == null ? "" : names.get(k)));
+		}
+		return keys.size();
+	}
+
+	private static Set<String> difference(Set<String> a, Set<String> b) {
+		Set<String> d = new TreeSet<String>();
+		for(String s : a) {
+			if(!b.contains(s)) d.add(s);
+		}
+		return d;
+	}
+
+	// the attribute values as written, lists as lists of their values
+	private static Map<String, Object> values(AttributeHolder attributes) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		for(String n : attributes.getAttributeNames()) {
+			Object o = attributes.getAttribute(n);
+			if(o instanceof ValueList) {
+				values.put(n, new ArrayList<String>(((ValueList)o).getValues()));
+			} else if(o != null) {
+				values.put(n, o.toString());
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the characters, continued from h
+	 */
+	private static long fingerprint(long h, CharSequence s) {
+		for(int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private void readFingerprints() throws IOException {
+		if(!fingerprintFile.exists()) {
+			System.out.println("[INFO:]\tNo fingerprints of the previous build, all records are converted.");
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fingerprintFile), 1 << 16));
+		try {
+			if(in.readInt() != VERSION || !context.equals(read(in))) {
+				System.out.println("[INFO:]\tThe previous build has another context, all records are converted.");
+				return;
+			}
+			int n = in.readInt();
+			long [] f = new long[n];
+			List<String[]> k = new ArrayList<String[]>(n);
+			for(int i = 0; i < n; i++) {
+				f[i] = in.readLong();
+				String [] s = new String[in.readInt()];
+				for(int j = 0; j < s.length; j++) s[j] = read(in);
+				k.add(s);
+			}
+			previousFingerprints = f;
+			previousKeys = k;
+		} finally {
+			in.close();
+		}
+	}
+
+	// written to a temporary file that is renamed, so the file is always complete
+	private void writeFingerprints() throws IOException {
+		File tmp = File.createTempFile(fingerprintFile.getName(), ".tmp", fingerprintFile.getAbsoluteFile().getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(VERSION);
+			write(out, context);
+			out.writeInt(keys.size());
+			for(int i = 0; i < keys.size(); i++) {
+				out.writeLong(fingerprints[i]);
+				String [] k = keys.get(i);
+				out.writeInt(k.length);
+				for(String s : k) write(out, s);
+			}
+			out.close();
+			if(!tmp.renameTo(fingerprintFile)) throw new IOException("Can not rename " + tmp + " to " + fingerprintFile);
+		} finally {
+			out.close();
+			tmp.delete();
+		}
+	}
+
+	// length and UTF-8 bytes, writeUTF is limited to 64k
+	private static void write(DataOutputStream out, String s) throws IOException {
+		byte [] b = s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String read(DataInputStream in) throws IOException {
+		byte [] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+	/**
+	 * Sink that ignores everything, for reading the outputs
+	 */
+	private static class GraphSinkAdapter implements GraphSink {
+		public void graph(String title, AttributeHolder attributes) throws IOException {}
+		public void node(String id, AttributeHolder attributes) throws IOException {}
+		public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException {}
+		public int getNodeCount() { return 0; }
+		public int getEdgeCount() { return 0; }
+		public void close() throws IOException {}
+	}
+}
@@ -0,0 +1,23 @@
+package cytargetlinker.conversion;
+
+import java.io.IOException;
+
+/**
+ * The lines of an input file, read by {@link MappedLines} or
+ * {@link LineSource}
+ * @author Thomas
+ *
+ */
+public interface LineReader {
+	/**
+	 * @return the next line (without line break) or null at the end of the input
+	 */
+	public CharSequence next() throws IOException;
+
+	/**
+	 * @return number of lines returned by {@link #next()} so far
+	 */
+	public long getLineCount();
+
+	public void close() throws IOException;
+}
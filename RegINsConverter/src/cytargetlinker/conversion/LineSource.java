@@ -0,0 +1,139 @@
+package cytargetlinker.conversion;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import cytargetlinker.conversion.utils.Compression;
+
+/**
+ * Reads the lines of a (downloaded) input file in a background thread,
+ * so that the converters can parse while the next lines are read.
+ * Lines are handed over in chunks through a bounded queue, at most
+ * QUEUE_SIZE * CHUNK_SIZE lines are kept in memory. Compressed input
+ * is decompressed while it is read.
+ * @author Thomas
+ *
+ */
+public class LineSource implements LineReader {
+
+	private final static int CHUNK_SIZE = 1024;
+	private final static int QUEUE_SIZE = 16;
+	private final static List<String> END = Collections.emptyList();
+
+	private final BufferedReader reader;
+	private final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(QUEUE_SIZE);
+	private final Thread thread;
+	private volatile Throwable error;
+	private String commentPrefix;
+
+	private List<String> chunk = END;
+	private int pos = 0;
+	private long lineCount = 0;
+	private boolean finished = false;
+
+	public LineSource(Reader in) {
+		this(in, null);
+	}
+
+	/**
+	 * @param commentPrefix lines starting with this prefix are skipped (may be null)
+	 */
+	public LineSource(Reader in, String commentPrefix) {
+		this.reader = in instanceof BufferedReader ? (BufferedReader)in : new BufferedReader(in, 1 << 16);
+		this.commentPrefix = commentPrefix;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				read();
+			}
+		}, "LineSource");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public static LineSource open(URL url, String commentPrefix) throws IOException {
+		return open(Compression.open(url), commentPrefix);
+	}
+
+	public static LineSource open(File file, String commentPrefix) throws IOException {
+		return open(Compression.open(file), commentPrefix);
+	}
+
+	private static LineSource open(InputStream in, String commentPrefix) {
+		return new LineSource(new InputStreamReader(in, Charset.forName("UTF-8")), commentPrefix);
+	}
+
+	private void read() {
+		try {
+			List<String> lines = new ArrayList<String>(CHUNK_SIZE);
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(commentPrefix != null && line.startsWith(commentPrefix)) continue;
+				lines.add(line);
+				if(lines.size() == CHUNK_SIZE) {
+					queue.put(lines);
+					lines = new ArrayList<String>(CHUNK_SIZE);
+				}
+			}
+			if(!lines.isEmpty()) queue.put(lines);
+		} catch (InterruptedException e) {
+			// closed before the end of the input, nobody takes the end anymore
+			return;
+		} catch (Throwable e) {
+			// also runtime exceptions and errors, so the input doesn't end silently
+			error = e;
+		}
+		try {
+			// throws at once if closed while reading, the flag is still set then
+			queue.put(END);
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * @return the next line or null at the end of the input
+	 */
+	public String next() throws IOException {
+		while(pos == chunk.size()) {
+			if(finished) return null;
+			try {
+				chunk = queue.take();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while reading", e);
+			}
+			pos = 0;
+			if(chunk == END) {
+				finished = true;
+				if(error instanceof IOException) throw (IOException)error;
+				if(error instanceof RuntimeException) throw (RuntimeException)error;
+				if(error instanceof Error) throw (Error)error;
+				if(error != null) throw new IOException(error);
+			}
+		}
+		lineCount++;
+		return chunk.get(pos++);
+	}
+
+	/**
+	 * @return number of lines returned by {@link #next()} so far
+	 */
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	public void close() throws IOException {
+		thread.interrupt();
+		reader.close();
+	}
+}
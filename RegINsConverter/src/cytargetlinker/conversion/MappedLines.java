@@ -0,0 +1,109 @@
+package cytargetlinker.conversion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import cytargetlinker.conversion.utils.ByteChars;
+import cytargetlinker.conversion.utils.Compression;
+
+/**
+ * Reads the lines of a file from memory mapped segments without decoding
+ * them, use a {@link cytargetlinker.conversion.utils.FieldTokenizer} to
+ * get the fields. Files larger than 2 GB are mapped in several segments,
+ * a segment always starts at the beginning of a line.
+ *
+ * {@link #next()} returns the same {@link ByteChars} object for every line,
+ * use toString() to keep a line. Compressed files can't be mapped, 
+ * {@link #open(File)} reads them with a {@link LineSource}.
+ * @author Thomas
+ *
+ */
+public class MappedLines implements LineReader {
+
+	private final static long SEGMENT_SIZE = 1L << 30;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long end;
+
+	// the mapped segment starts at base
+	private MappedByteBuffer segment;
+	private long base;
+	private int pos = 0;
+	private ByteChars line = new ByteChars();
+	private long lineCount = 0;
+
+	public MappedLines(File input) throws IOException {
+		file = new RandomAccessFile(input, "r");
+		channel = file.getChannel();
+		end = channel.size();
+		map(0);
+	}
+
+	/**
+	 * @return the lines of the file, memory mapped unless the file is compressed
+	 */
+	public static LineReader open(File input) throws IOException {
+		if(Compression.isCompressed(input)) {
+			return LineSource.open(input, null);
+		}
+		return new MappedLines(input);
+	}
+
+	/**
+	 * reads the lines between the byte positions start and end, start has to
+	 * be the beginning of a line, the channel is not closed by {@link #close()}
+	 */
+	public MappedLines(FileChannel channel, long start, long end) throws IOException {
+		this.channel = channel;
+		this.end = end;
+		map(start);
+	}
+
+	private void map(long start) throws IOException {
+		base = start;
+		segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, end - start));
+		pos = 0;
+	}
+
+	/**
+	 * @return the next line (without line break) or null at the end of the file
+	 */
+	public ByteChars next() throws IOException {
+		if(base + pos >= end) return null;
+		int eol = pos;
+		while(true) {
+			if(eol == segment.limit()) {
+				if(base + eol >= end) break;
+				// the line continues after the segment, map again from the start of the line
+				eol -= pos;
+				map(base + pos);
+				if(eol == segment.limit()) {
+					throw new IOException("Line at byte " + base + " is too long");
+				}
+			}
+			if(segment.get(eol) == '\n') break;
+			eol++;
+		}
+		int start = pos;
+		pos = eol + 1;
+		if(eol > start && segment.get(eol - 1) == '\r') eol--;
+		line.set(segment, start, eol - start);
+		lineCount++;
+		return line;
+	}
+
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * closes the file, mapped segments are released by the garbage collector
+	 */
+	public void close() throws IOException {
+		if(file != null) file.close();
+	}
+}
@@ -1,13 +1,8 @@
 package cytargetlinker.conversion;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -15,11 +10,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import cytargetlinker.conversion.graph.AttributeHolder;
 import cytargetlinker.conversion.graph.Graph;
-import cytargetlinker.conversion.graph.Graph.Edge;
-import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.graph.GraphSink;
 import cytargetlinker.conversion.graph.XGMMLWriter;
+import cytargetlinker.conversion.graph.XGMMLWriter.Storage;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.FieldTokenizer;
+import cytargetlinker.conversion.utils.RunMetrics;
+import cytargetlinker.conversion.utils.RunMetrics.Counter;
+import cytargetlinker.conversion.utils.RunMetrics.Phase;
 
 public class MiRBase {
 
@@ -31,162 +31,263 @@ public class MiRBase {
 //	private static String biomartFile = "/home/martina/Downloads/ensembl-mirna.txt";
 	// use this line if you don't want to add a mapping 
 	private static String biomartFile = "";
+	// GRAPH or COLUMNAR (compact, for very large networks) collect the network 
+	// in memory, STREAM spools nodes and edges to disk while they are added
+	private static Storage storage = Storage.GRAPH;
+	// JSON report with the times of the phases, counters and heap usage (null: no report)
+	private static String reportFile = null;
+	// seconds between progress lines, 0: no progress
+	private static int progressInterval = 10;
+	// only convert the lines that are new or changed since the previous output 
+	// and copy the rest, the changes are written to output.changes.tsv
+	private static boolean incremental = false;
 	
 	public static void main(String[] args) throws Exception {
 		
 		MiRBase mirbase = new MiRBase();
+		RunMetrics metrics = mirbase.getMetrics();
+		metrics.setProgressInterval(progressInterval);
+		metrics.start();
 		URL url = new URL(mirbaseURL);
 		Map<String, Set<String>> ids = new HashMap<String, Set<String>>();
 		if(!biomartFile.equals("")) {
-			ids = readBiomartFile();
+			ids = readBiomartFile(new File(biomartFile));
 		}
-		List<String> list = mirbase.readFile(url);
-		Graph graph = mirbase.convertGraph(list, ids);
-		mirbase.printGraph(graph);
+		LineSource lines = mirbase.readFile(url);
+		GraphSink sink;
+		if(incremental) {
+			File biomart = biomartFile.equals("") ? null : new File(biomartFile);
+			IncrementalBuild build = new IncrementalBuild(new File(outputFile), storage, IncrementalBuild.context(networkName, biomart));
+			mirbase.convert(lines, ids, build);
+			sink = build;
+		} else {
+			sink = XGMMLWriter.open(new File(outputFile), storage);
+			mirbase.convert(lines, ids, sink);
+		}
+		lines.close();
+		long t = System.nanoTime();
+		sink.close();
+		metrics.stop(Phase.WRITE, t);
+		if(incremental) System.out.println("[INFO:]\t" + ((IncrementalBuild)sink).getReport());
+		metrics.finish();
+		System.out.println("[INFO:]\t" + metrics.getSummary());
+		if(reportFile != null) metrics.writeReport(new File(reportFile));
 	}
 	
 	
 
-	private static Map<String, Set<String>> readBiomartFile() throws IOException {
+	/**
+	 * reads the Ensembl gene ids of the primary transcripts from a biomart
+	 * export (Ensembl gene id, miRBase id)
+	 */
+	public static Map<String, Set<String>> readBiomartFile(File biomartFile) throws IOException {
 		Map<String, Set<String>> map = new HashMap<String, Set<String>>();
-		File f = new File(biomartFile);
-		BufferedReader reader = new BufferedReader(new FileReader(f));
-		String line;
-		while((line = reader.readLine()) != null) {
-			String [] buffer = line.split(",");
-			if(buffer.length > 1) {
-				String mirna = buffer[1];
-				String ensembl = buffer[0];
-				if(map.containsKey(mirna)) {
-					if(!map.get(mirna).contains(ensembl)) {
-						map.get(mirna).add(ensembl);
-					}
-				} else {
-					Set<String> set = new HashSet<String>();
-					set.add(ensembl);
+		LineReader lines = MappedLines.open(biomartFile);
+		FieldTokenizer tok = FieldTokenizer.csv(0, 1);
+		CharSequence line;
+		while((line = lines.next()) != null) {
+			if(tok.tokenize(line) > 1) {
+				String mirna = tok.get(1);
+				String ensembl = tok.get(0);
+				Set<String> set = map.get(mirna);
+				if(set == null) {
+					set = new HashSet<String>();
 					map.put(mirna, set);
 				}
+				set.add(ensembl);
 			}
 		}
-		reader.close();
+		lines.close();
 		return map;
 	}
 
 
 
-	private Map<String, Node> genes;
-	private Map<String, Node> mirnas;
-	private Map<String, Edge> edges;
+	private Set<String> genes;
+	private Set<String> mirnas;
+	private RunMetrics metrics = new RunMetrics(networkName);
 	
 	public MiRBase() {
-		genes = new HashMap<String, Node>();
-		mirnas = new HashMap<String, Node>();
-		edges = new HashMap<String, Edge>();
+		genes = new HashSet<String>();
+		mirnas = new HashSet<String>();
 	}
 	
-	private void printGraph(Graph graph) throws Exception {
-		PrintWriter po = new PrintWriter(new File(outputFile));
-		XGMMLWriter.write(graph, po);
-		po.close();
+	/**
+	 * opens the gff3 file, the lines are read while they are converted
+	 */
+	public LineSource readFile(URL url) throws Exception {
+		System.out.println("[INFO]\treading mirBase file");
+		return LineSource.open(url, "#");
+	}
+
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
 	}
 	
-	public List<String> readFile(URL url) throws Exception {
-		System.out.println("[INFO]\treading mirBase file");
-		URLConnection con = url.openConnection();
-		BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream()));
-		reader.readLine();
-		String line;
-		List<String> list = new ArrayList<String>();
-		while ((line = reader.readLine()) != null) {
-			if(!line.startsWith("#")) {
-				list.add(line);
-			}
-		}
-		reader.close();
-		System.out.println("[INFO]\tmirBase file has been read");
-		return list;
+	public RunMetrics getMetrics() {
+		return metrics;
 	}
 
-	public Graph convertGraph(List<String> list, Map<String, Set<String>> ids) {
+	public Graph convertGraph(LineSource lines, Map<String, Set<String>> ids) throws IOException {
 		Graph graph = new Graph();
-		graph.setTitle(networkName);
-		graph.setAttribute(CommonAttributes.DATABASE.getName(), networkName);
-		graph.setAttribute(CommonAttributes.TYPE.getName(), "primary transcript - miRNA interaction");
-		for(String str : list) {
-			String [] buffer = str.split("\t");
-			if(buffer[2].equals("miRNA_primary_transcript")) {
-				addSourceNode(buffer[8], graph, ids);		
-			} else if(buffer[2].equals("miRNA")) {
-				addTargetNode(buffer[8], graph);
-			} 
+		convert(lines, ids, graph);
+		return graph;
+	}
+	
+	public void convert(LineSource lines, Map<String, Set<String>> ids, GraphSink graph) throws IOException {
+		AttributeHolder graphAttributes = new AttributeHolder();
+		graphAttributes.setAttribute(CommonAttributes.DATABASE.getName(), networkName);
+		graphAttributes.setAttribute(CommonAttributes.TYPE.getName(), "primary transcript - miRNA interaction");
+		graph.graph(networkName, graphAttributes);
+		String str;
+		long t = System.nanoTime();
+		while((str = lines.next()) != null) {
+			t = metrics.stop(Phase.READ, t);
+			metrics.count(Counter.ROWS_READ);
+			fields.tokenize(str);
+			if(fields.equals(2, "miRNA_primary_transcript")) {
+				details.tokenize(str, fields.getStart(8), fields.getEnd(8));
+				t = metrics.stop(Phase.PARSE, t);
+				addSourceNode(graph, ids);		
+			} else if(fields.equals(2, "miRNA")) {
+				details.tokenize(str, fields.getStart(8), fields.getEnd(8));
+				t = metrics.stop(Phase.PARSE, t);
+				addTargetNode(graph);
+			} else {
+				t = metrics.stop(Phase.PARSE, t);
+				metrics.count(Counter.ROWS_FILTERED);
+			}
+			t = metrics.stop(Phase.BUILD, t);
 		}
+		metrics.stop(Phase.READ, t);
+		System.out.println("[INFO]\tmirBase file has been read");
 		System.out.println(networkName + " is converted to RegIN\n" + outputFile);
 		System.out.println("Number of genes (primary transcripts): " + genes.size());
 		System.out.println("Number of miRNAs: " + mirnas.size());
-		System.out.println("Number of interactions: " + edges.size());
-		return graph;
+		System.out.println("Number of interactions: " + graph.getEdgeCount());
 	}
 	
-	private void addTargetNode(String details, Graph graph) {
-		String [] buffer2 = details.split(";");
+	/**
+	 * converts the lines that are new or changed since the previous build,
+	 * the nodes and edges of the other lines are copied
+	 */
+	public void convert(LineSource lines, Map<String, Set<String>> ids, IncrementalBuild build) throws IOException {
+		List<String> records = new ArrayList<String>();
+		// the nodes are added by the first line with their id, an edge depends on its primary transcript
+		Set<String> seen = new HashSet<String>();
+		String str;
+		long t = System.nanoTime();
+		while((str = lines.next()) != null) {
+			t = metrics.stop(Phase.READ, t);
+			metrics.count(Counter.ROWS_READ);
+			fields.tokenize(str);
+			if(fields.equals(2, "miRNA_primary_transcript")) {
+				details.tokenize(str, fields.getStart(8), fields.getEnd(8));
+				String mi = details.get(0, 3);
+				if(seen.add(mi)) build.record(str, mi);
+				else build.record(str);
+				records.add(str);
+			} else if(fields.equals(2, "miRNA")) {
+				details.tokenize(str, fields.getStart(8), fields.getEnd(8));
+				String mimat = details.get(0, 3);
+				String gene = details.get(3, 13);
+				String edge = IncrementalBuild.edgeKey(gene, mimat);
+				if(seen.add(mimat)) build.record(str, mimat, gene, edge);
+				else build.record(str, gene, edge);
+				records.add(str);
+			} else {
+				metrics.count(Counter.ROWS_FILTERED);
+			}
+			t = metrics.stop(Phase.PARSE, t);
+		}
+		metrics.stop(Phase.READ, t);
 		
-		String mimat = buffer2[0].substring(3);
-		String alias = buffer2[1].substring(6);
-		String name = buffer2[2].substring(5);
+		t = System.nanoTime();
+		AttributeHolder graphAttributes = new AttributeHolder();
+		graphAttributes.setAttribute(CommonAttributes.DATABASE.getName(), networkName);
+		graphAttributes.setAttribute(CommonAttributes.TYPE.getName(), "primary transcript - miRNA interaction");
+		build.graph(networkName, graphAttributes);
+		for(int i = 0; i < records.size(); i++) {
+			str = records.get(i);
+			fields.tokenize(str);
+			details.tokenize(str, fields.getStart(8), fields.getEnd(8));
+			String id = details.get(0, 3);
+			boolean transcript = fields.equals(2, "miRNA_primary_transcript");
+			// copied nodes are not added again, copied transcripts still take edges
+			if(build.isCopied(id)) {
+				if(transcript) genes.add(id);
+				else mirnas.add(id);
+			}
+			if(!build.isChanged(i)) continue;
+			if(transcript) addSourceNode(build, ids);
+			else addTargetNode(build);
+		}
+		metrics.stop(Phase.BUILD, t);
+		System.out.println("[INFO]\t" + build.getChangedCount() + " of " + build.getRecordCount() + " lines converted");
+	}
+	
+	private FieldTokenizer fields = FieldTokenizer.tsv(2, 8);
+	// attributes of the gff3 line (ID, Alias, Name, Derives_from)
+	private FieldTokenizer details = new FieldTokenizer(';', false, 0, 1, 2, 3);
+	
+	private void addTargetNode(GraphSink graph) throws IOException {
+		String mimat = details.get(0, 3);
+		String alias = details.get(1, 6);
+		String name = details.get(2, 5);
 		
-		String gene = buffer2[3].substring(13);
+		String gene = details.get(3, 13);
 		
-		Node target;
-		if(!mirnas.containsKey(mimat)) {
-			target = graph.addNode(mimat);
+		if(!mirnas.contains(mimat)) {
+			AttributeHolder target = new AttributeHolder();
 			target.appendAttribute("miRBase id", mimat);
 			target.appendAttribute("alias", alias);
 			target.appendAttribute("name", name);
 			target.appendAttribute("label", name);
 			target.appendAttribute("biologicalType", "microRNA");
-			target.appendAttribute("identifiers", "[" + mimat + "," + name + "]");
-			mirnas.put(mimat, target);
-		} else {
-			target = mirnas.get(mimat);
+			target.addToList("identifiers", mimat);
+			target.addToList("identifiers", name);
+			graph.node(mimat, target);
+			metrics.count(Counter.NODES);
+			mirnas.add(mimat);
 		}
 		
-		Node geneNode = genes.get(gene);
-		if(geneNode != null) {
-			if(!edges.containsKey(geneNode.getId() + " - " + target.getId())) {
-				Edge e = graph.addEdge(geneNode.getId() + " - " + target.getId(), geneNode, target);
-				e.setAttribute("datasource", networkName);
-				e.setAttribute("interactionType", "primary transcript - miRNA interaction");
-				edges.put(geneNode.getId() + " - " + target.getId(), e);
-			}
+		if(genes.contains(gene)) {
+			// every miRNA line is one edge, the sink drops repeated lines
+			AttributeHolder e = new AttributeHolder();
+			e.setAttribute("datasource", networkName);
+			e.setAttribute("interactionType", "primary transcript - miRNA interaction");
+			int edges = graph.getEdgeCount();
+			graph.edge(gene + " - " + mimat, gene, mimat, e);
+			if(graph.getEdgeCount() > edges) metrics.count(Counter.EDGES);
 		} else {
-			System.out.println("ERRROR!!!!");
+			// the primary transcript has to be in the file before its miRNAs
+			System.out.println("[ERROR]\tUnknown primary transcript " + gene + " of " + mimat);
+			metrics.count(Counter.ROWS_REJECTED);
 		}
 	}
 	
-	private void addSourceNode(String details, Graph graph, Map<String, Set<String>> ids) {
-		String [] buffer2 = details.split(";");
-		
-		String mi = buffer2[0].substring(3);
-		String alias = buffer2[1].substring(6);
-		String name = buffer2[2].substring(5);
+	private void addSourceNode(GraphSink graph, Map<String, Set<String>> ids) throws IOException {
+		String mi = details.get(0, 3);
+		String alias = details.get(1, 6);
+		String name = details.get(2, 5);
 		
-		if(!genes.containsKey(mi)) {
-			String identifiers = "[" + mi + "," + name;
+		if(!genes.contains(mi)) {
+			AttributeHolder source = new AttributeHolder();
+			source.addToList("identifiers", mi);
+			source.addToList("identifiers", name);
 			if(ids.containsKey(mi)) {
 				for(String ensembl : ids.get(mi)) {
-					identifiers = identifiers + "," + ensembl;
+					source.addToList("identifiers", ensembl);
 				}
 			}
-			identifiers = identifiers + "]";
-			System.out.println(identifiers);
-			Node source = graph.addNode(mi);
 			source.appendAttribute("miRBase id", mi);
 			source.appendAttribute("alias", alias);
 			source.appendAttribute("name", name);
 			source.appendAttribute("label", name);
 			source.appendAttribute("biologicalType", "gene");
-			source.appendAttribute("identifiers", identifiers);
-			genes.put(mi, source);
+			graph.node(mi, source);
+			metrics.count(Counter.NODES);
+			genes.add(mi);
 		}
 	}
 	
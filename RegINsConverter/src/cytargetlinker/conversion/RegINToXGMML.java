@@ -0,0 +1,82 @@
+package cytargetlinker.conversion;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import uk.co.flamingpenguin.jewel.cli.ArgumentValidationException;
+import cytargetlinker.conversion.graph.RegINReader;
+import cytargetlinker.conversion.graph.RegINWriter;
+import cytargetlinker.conversion.graph.XGMMLWriter;
+import cytargetlinker.conversion.utils.ArgsParser;
+import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
+import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
+import cytargetlinker.conversion.utils.ArgsParser.AHelp;
+import cytargetlinker.conversion.utils.Compression;
+
+/**
+ * Converts a binary RegIN file (see {@link RegINWriter}) to xgmml, e.g.
+ * for tools that can't read the binary format. Nodes and edges are
+ * written in the order of the binary file.
+ * @author Thomas
+ *
+ */
+public class RegINToXGMML {
+
+	public interface Args extends AHelp, AFilesIn, AFilesOut {}
+
+	public static void main(String[] args) throws Exception {
+		Args a;
+		try {
+			a = ArgsParser.parse(args, Args.class);
+		} catch (ArgumentValidationException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		if(!a.isInput()) {
+			System.err.println("Please specify the binary RegIN input file (-i).");
+			return;
+		}
+		if(a.isBinary() || a.isFormat()) {
+			System.err.println("[ERROR]\t--binary and --format can't be used, the output is always xgmml.");
+			return;
+		}
+		File output = a.isOutput() ? a.getOutput() : new File(xgmmlName(a.getInput()));
+		if(a.isGzip()) output = Compression.gzip(output);
+		if(a.isSorted()) XGMMLWriter.setSorted(true);
+		try {
+			long start = System.currentTimeMillis();
+			RegINReader reader = RegINReader.open(a.getInput());
+			long read = System.currentTimeMillis();
+			convert(reader, output);
+			System.out.println("[INFO:]\t" + reader.getNodeCount() + " nodes and " + reader.getEdgeCount() + " edges read in "
+					+ (read - start) + " ms, written to " + output + " in " + (System.currentTimeMillis() - read) + " ms");
+		} catch (IOException e) {
+			System.err.println("[ERROR]\t" + e.getMessage());
+		}
+	}
+
+	/**
+	 * writes the network of the reader as xgmml to the output file,
+	 * gzip compressed if its name ends with .gz
+	 */
+	public static void convert(RegINReader reader, File output) throws IOException {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Compression.create(output), "UTF-8")));
+		XGMMLWriter.write(reader, out);
+		out.close();
+	}
+
+	// input.regin(.gz) -> input.xgmml
+	private static String xgmmlName(File input) {
+		String path = input.getAbsolutePath();
+		if(path.endsWith(Compression.GZIP_EXTENSION)) {
+			path = path.substring(0, path.length() - Compression.GZIP_EXTENSION.length());
+		}
+		if(path.endsWith(RegINWriter.EXTENSION)) {
+			path = path.substring(0, path.length() - RegINWriter.EXTENSION.length());
+		}
+		return path + ".xgmml";
+	}
+}
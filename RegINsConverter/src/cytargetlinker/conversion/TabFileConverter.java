@@ -1,81 +1,541 @@
 package cytargetlinker.conversion;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
+import uk.co.flamingpenguin.jewel.cli.ArgumentValidationException;
+import uk.co.flamingpenguin.jewel.cli.Option;
+import cytargetlinker.conversion.graph.AttributeHolder;
+import cytargetlinker.conversion.graph.ColumnarGraph;
 import cytargetlinker.conversion.graph.Graph;
+import cytargetlinker.conversion.graph.GraphSink;
+import cytargetlinker.conversion.graph.RegINWriter;
 import cytargetlinker.conversion.graph.XGMMLWriter;
-import cytargetlinker.conversion.graph.Graph.Edge;
-import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.graph.XGMMLWriter.Storage;
+import cytargetlinker.conversion.utils.ArgsParser;
+import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
+import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
+import cytargetlinker.conversion.utils.ArgsParser.AHelp;
+import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.Compression;
+import cytargetlinker.conversion.utils.FieldTokenizer;
+import cytargetlinker.conversion.utils.RunMetrics;
+import cytargetlinker.conversion.utils.RunMetrics.Counter;
+
+/**
+ * Converts a table with one interaction per row into a RegIN. Every row
+ * adds a source node, a target node and an edge. Columns are given by index
+ * or by the name in the header (first line), the header names are used as
+ * attribute names. Rows without a source or target id (e.g. blank lines)
+ * are skipped and counted as rejected.
+ *
+ * The input can be a directory, then all tables in it are converted in
+ * one run using the same thread pool.
+ */
+public class TabFileConverter implements GraphBuilder {
+
+	public final static String STRING = "string";
+	public final static String REAL = "real";
+	public final static String LIST = "list";
+
+	// size of the parts of the file that are parsed in parallel
+	private final static int RANGE_SIZE = 8 << 20;
+
+	public interface Args extends AHelp, AFilesIn, AFilesOut {
+		@Option(shortName = "n", description = "The name of the network (default: the file name).")
+		public String getName();
+		public boolean isName();
+
+		@Option(longName = "sourceId", defaultValue = "0", description = "Column(s) with the identifiers of the source node (index or header name), the first one is the node id.")
+		public List<String> getSourceId();
+
+		@Option(longName = "targetId", defaultValue = "1", description = "Column(s) with the identifiers of the target node (index or header name), the first one is the node id.")
+		public List<String> getTargetId();
+
+		@Option(longName = "sourceAttr", description = "Columns with attributes of the source node.")
+		public List<String> getSourceAttr();
+		public boolean isSourceAttr();
+
+		@Option(longName = "targetAttr", description = "Columns with attributes of the target node.")
+		public List<String> getTargetAttr();
+		public boolean isTargetAttr();
+
+		@Option(longName = "edgeAttr", description = "Columns with attributes of the edge.")
+		public List<String> getEdgeAttr();
+		public boolean isEdgeAttr();
+
+		@Option(longName = "attrType", description = "Attribute types as column=type, type is string (values of several rows are appended, default), real or list.")
+		public List<String> getAttrType();
+		public boolean isAttrType();
+
+		@Option(longName = "delimiter", defaultValue = "tab", description = "The field delimiter: tab, comma or any single character.")
+		public String getDelimiter();
+
+		@Option(longName = "quoted", description = "Fields can be in double quotes (like in CSV files).")
+		public boolean isQuoted();
+
+		@Option(longName = "threads", defaultValue = "1", description = "Number of threads used to parse a file.")
+		public int getThreads();
+
+		@Option(longName = "storage", defaultValue = "GRAPH", description = "GRAPH or COLUMNAR (compact) collect the network in memory, STREAM spools nodes and edges to disk while the file is read (same network, less memory).")
+		public String getStorage();
+	}
 
-public class TabFileConverter {
-
-	private static String inputFile = "resources/Correlation.csv";
-	private static String outputFile = "resources/Correlation.xgmml";
-	private static String networkName = "Correlation";
-	
-	private static int [] sourceIdCol = {0,1};
-	private static int [] targetIdCol = {8};
-	private static int [] sourceAttrCol = {1,2,3,4,5,6,7};
-	private static int [] targetAttrCol = {};
-	private static int [] edgeAttrCol = {};
-	
 	public static void main(String[] args) throws Exception {
-		
+		Args a;
+		try {
+			a = ArgsParser.parse(args, Args.class);
+		} catch (ArgumentValidationException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		if(!a.isInput()) {
+			System.err.println("Please specify the input file or directory (-i).");
+			return;
+		}
+		TabFileConverter converter = null;
+		try {
+			converter = create(a);
+			Storage storage = Storage.valueOf(a.getStorage().toUpperCase());
+			if(a.isSorted()) XGMMLWriter.setSorted(true);
+			if(a.getInput().isDirectory()) {
+				File outDir = a.isOutput() ? a.getOutput() : a.getInput();
+				outDir.mkdirs();
+				File [] files = a.getInput().listFiles();
+				Arrays.sort(files);
+				List<String> formats = ArgsParser.formats(a);
+				for(File f : files) {
+					if(f.isFile() && !isOutput(f, formats) && !f.getName().startsWith(".")) {
+						long start = System.currentTimeMillis();
+						converter.convertAndWrite(f, ArgsParser.outputs(new File(outDir, f.getName()).getPath(), a), storage);
+						System.out.println("[INFO:]\t" + f.getName() + " converted in " + (System.currentTimeMillis() - start) + " ms");
+					}
+				}
+			} else {
+				converter.convertAndWrite(a.getInput(), ArgsParser.outputs(a, a), storage);
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("[ERROR]\t" + e.getMessage());
+		} catch (IOException e) {
+			System.err.println("[ERROR]\t" + e.getMessage());
+		} finally {
+			if(converter != null) converter.close();
+		}
+	}
+
+	/**
+	 * creates a converter with the command line options
+	 */
+	public static TabFileConverter create(Args a) {
+		TabFileConverter c = new TabFileConverter();
+		if(a.isName()) c.setName(a.getName());
+		c.setSourceIds(a.getSourceId());
+		c.setTargetIds(a.getTargetId());
+		if(a.isSourceAttr()) c.setSourceAttributes(a.getSourceAttr());
+		if(a.isTargetAttr()) c.setTargetAttributes(a.getTargetAttr());
+		if(a.isEdgeAttr()) c.setEdgeAttributes(a.getEdgeAttr());
+		if(a.isAttrType()) {
+			for(String t : a.getAttrType()) {
+				int eq = t.lastIndexOf('=');
+				if(eq == -1) throw new IllegalArgumentException("Attribute type " + t + " is not column=type");
+				c.setAttributeType(t.substring(0, eq), t.substring(eq + 1));
+			}
+		}
+		String d = a.getDelimiter();
+		char delimiter = d.equals("tab") || d.equals("\\t") ? '\t' : d.equals("comma") ? ',' : d.charAt(0);
+		c.setDelimiter(delimiter, a.isQuoted());
+		c.setThreads(a.getThreads());
+		return c;
+	}
+
+	private String name;
+	private List<String> sourceIds = Arrays.asList("0");
+	private List<String> targetIds = Arrays.asList("1");
+	private List<String> sourceAttributes = new ArrayList<String>();
+	private List<String> targetAttributes = new ArrayList<String>();
+	private List<String> edgeAttributes = new ArrayList<String>();
+	private Map<String, String> types = new HashMap<String, String>();
+	private char delimiter = '\t';
+	private boolean quoted = false;
+	private int threads = 1;
+	private ForkJoinPool pool;
+	private boolean ownPool = false;
+	private RunMetrics metrics = new RunMetrics("Tab file");
+
+	/**
+	 * @param name the name of the network, by default the file name
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param columns index or header name of the columns with identifiers,
+	 * the first column is used as node id
+	 */
+	public void setSourceIds(List<String> columns) {
+		sourceIds = new ArrayList<String>(columns);
+	}
+
+	public void setTargetIds(List<String> columns) {
+		targetIds = new ArrayList<String>(columns);
+	}
+
+	public void setSourceAttributes(List<String> columns) {
+		sourceAttributes = new ArrayList<String>(columns);
+	}
+
+	public void setTargetAttributes(List<String> columns) {
+		targetAttributes = new ArrayList<String>(columns);
+	}
+
+	public void setEdgeAttributes(List<String> columns) {
+		edgeAttributes = new ArrayList<String>(columns);
+	}
+
+	/**
+	 * @param type STRING (default), REAL or LIST
+	 */
+	public void setAttributeType(String column, String type) {
+		if(!type.equals(STRING) && !type.equals(REAL) && !type.equals(LIST)) {
+			throw new IllegalArgumentException("Unknown attribute type " + type);
+		}
+		types.put(column, type);
+	}
+
+	public void setDelimiter(char delimiter, boolean quoted) {
+		this.delimiter = delimiter;
+		this.quoted = quoted;
+	}
+
+	/**
+	 * with more than one thread the files are split into parts that are converted
+	 * in parallel, they are merged into the network in the order of the file
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * the pool is used for all files, it can be shared with other converters
+	 * and is not shut down by {@link #close()}
+	 */
+	public void setPool(ForkJoinPool pool) {
+		close();
+		this.pool = pool;
+	}
+
+	/**
+	 * the metrics of the conversion, one instance can be shared by the converters of a run
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public RunMetrics getMetrics() {
+		return metrics;
+	}
+
+	public Graph buildGraph(File in) throws Exception {
 		Graph graph = new Graph();
-		graph.setTitle(networkName);
-		graph.setAttribute(CommonAttributes.DATABASE.getName(), networkName);		
-		
-		File f = new File(inputFile);
-		BufferedReader reader = new BufferedReader(new FileReader(f));
-		String line;
-		String [] header = reader.readLine().split("\t");
-		while((line = reader.readLine()) != null) {
-			String [] buffer = line.split("\t");
-			String sourceId = buffer[sourceIdCol[0]];
-			Node source = graph.addNode(sourceId);
-			String sourceIdentifier = "[" + sourceId;
-			for(int i = 1; i < sourceIdCol.length; i++) {
-				sourceIdentifier = sourceIdentifier + "," + buffer[sourceIdCol[i]];
+		convert(in, graph);
+		return graph;
+	}
+
+	/**
+	 * converts the file and writes the network to output
+	 */
+	public void convertAndWrite(File input, File output, Storage storage) throws Exception {
+		convertAndWrite(input, Collections.singletonList(output), storage);
+	}
+
+	/**
+	 * converts the file and writes the network to the outputs, in the 
+	 * format of each output file. Several outputs are written in 
+	 * parallel from one {@link Graph}, whatever the storage is.
+	 */
+	public void convertAndWrite(File input, List<File> outputs, Storage storage) throws Exception {
+		if(storage == Storage.GRAPH || outputs.size() > 1) {
+			ArgsParser.convertAndWrite(input, outputs, this);
+		} else {
+			GraphSink sink = XGMMLWriter.open(outputs.get(0), storage);
+			convert(input, sink);
+			sink.close();
+		}
+	}
+
+	// output files of an earlier run in the input directory
+	private static boolean isOutput(File f, List<String> formats) {
+		String format = ArgsParser.getFormat(f);
+		if(format == null) return false;
+		return formats.contains(format) || format.equals(ArgsParser.XGMML_FORMAT) || RegINWriter.isRegIN(f);
+	}
+
+	/**
+	 * shuts down the pool if the converter created it
+	 */
+	public void close() {
+		if(pool != null && ownPool) pool.shutdown();
+		pool = null;
+		ownPool = false;
+	}
+
+	/**
+	 * adds the network and the nodes and edges of the file to the sink
+	 */
+	public void convert(File input, GraphSink sink) throws Exception {
+		String networkName = name;
+		if(networkName == null) {
+			networkName = input.getName();
+			if(networkName.endsWith(Compression.GZIP_EXTENSION)) {
+				networkName = networkName.substring(0, networkName.length() - Compression.GZIP_EXTENSION.length());
+			}
+		}
+		AttributeHolder graphAttributes = new AttributeHolder();
+		graphAttributes.setAttribute(CommonAttributes.DATABASE.getName(), networkName);
+		sink.graph(networkName, graphAttributes);
+
+		long rejected = metrics.get(Counter.ROWS_REJECTED);
+		// compressed files can't be split, they are read on one thread
+		if(threads <= 1 || Compression.isCompressed(input)) {
+			LineReader lines = MappedLines.open(input);
+			Columns columns = new Columns(lines.next());
+			FieldTokenizer tok = columns.tokenizer();
+			CharSequence line;
+			while((line = lines.next()) != null) {
+				convertRow(tok, line, columns, sink);
+			}
+			lines.close();
+		} else {
+			convertParallel(input, sink);
+		}
+		rejected = metrics.get(Counter.ROWS_REJECTED) - rejected;
+		if(rejected > 0) {
+			System.out.println("[INFO:]\t" + rejected + " rows of " + input.getName() + " have no source or target id and are skipped");
+		}
+	}
+
+	// converts parts of the file on the threads of the pool
+	private void convertParallel(File input, GraphSink sink) throws IOException {
+
+		if(pool == null) {
+			pool = new ForkJoinPool(threads);
+			ownPool = true;
+		}
+		RandomAccessFile raf = new RandomAccessFile(input, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long start = nextLine(channel, 0);
+			Columns columns = new Columns(new MappedLines(channel, 0, start).next());
+
+			// at most 2 parts per thread are waiting to be merged
+			LinkedList<ForkJoinTask<ColumnarGraph>> parts = new LinkedList<ForkJoinTask<ColumnarGraph>>();
+			for(long end : ranges(channel, start)) {
+				parts.add(pool.submit(new ParseRange(channel, start, end, columns)));
+				start = end;
+				if(parts.size() >= 2 * threads) {
+					parts.removeFirst().join().copyTo(sink);
+				}
+			}
+			while(!parts.isEmpty()) {
+				parts.removeFirst().join().copyTo(sink);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * The column indices of a file, resolved with its header
+	 */
+	private class Columns {
+		String [] header;
+		int [] sourceId;
+		int [] targetId;
+		int [] sourceAttr;
+		int [] targetAttr;
+		int [] edgeAttr;
+		String [] type;
+
+		Columns(CharSequence headerLine) {
+			FieldTokenizer tok = new FieldTokenizer(delimiter, quoted, FieldTokenizer.range(headerLine == null ? 0 : count(headerLine)));
+			if(headerLine != null) tok.tokenize(headerLine);
+			header = new String[tok.getFieldCount()];
+			for(int i = 0; i < header.length; i++) {
+				header[i] = tok.get(i);
 			}
-			sourceIdentifier = sourceIdentifier + "]";
-			source.appendAttribute("identifiers", sourceIdentifier);
-			for(int i = 0; i < sourceAttrCol.length; i++) {
-				source.appendAttribute(header[sourceAttrCol[i]], buffer[sourceAttrCol[i]]);
+			sourceId = resolve(sourceIds);
+			targetId = resolve(targetIds);
+			sourceAttr = resolve(sourceAttributes);
+			targetAttr = resolve(targetAttributes);
+			edgeAttr = resolve(edgeAttributes);
+			type = new String[header.length];
+			Arrays.fill(type, STRING);
+			for(Map.Entry<String, String> e : types.entrySet()) {
+				type[resolve(e.getKey())] = e.getValue();
 			}
+		}
 
-			String id = buffer[targetIdCol[0]];
-			Node target = graph.addNode(id);
-			String identifier = "[" + id;
-			for(int i = 1; i < targetIdCol.length; i++) {
-				identifier = identifier + "," + buffer[targetIdCol[i]];
+		private int count(CharSequence line) {
+			int n = 1;
+			for(int i = 0; i < line.length(); i++) {
+				if(line.charAt(i) == delimiter) n++;
 			}
-			identifier = identifier + "]";
-			target.appendAttribute("identifiers", identifier);
-			for(int i = 0; i < targetAttrCol.length; i++) {
-				target.appendAttribute(header[targetAttrCol[i]], buffer[targetAttrCol[i]]);
+			return n;
+		}
+
+		private int [] resolve(List<String> columns) {
+			int [] res = new int[columns.size()];
+			for(int i = 0; i < res.length; i++) {
+				res[i] = resolve(columns.get(i));
 			}
-		
-			Edge e = graph.addEdge(sourceId + "-" + id, source, target);
-			for(int i = 0; i < edgeAttrCol.length; i++) {
-				e.appendAttribute(header[edgeAttrCol[i]], buffer[edgeAttrCol[i]]);
+			return res;
+		}
+
+		// header name or index
+		private int resolve(String column) {
+			for(int i = 0; i < header.length; i++) {
+				if(header[i].equals(column)) return i;
 			}
-			
+			try {
+				int i = Integer.parseInt(column);
+				if(i >= 0 && i < header.length) return i;
+			} catch (NumberFormatException e) {}
+			throw new IllegalArgumentException("Column " + column + " is not in the header " + Arrays.toString(header));
 		}
-		 
-		reader.close();
-		
-		writeGraph(graph,new File(outputFile));
+
+		FieldTokenizer tokenizer() {
+			int [][] cols = {sourceId, targetId, sourceAttr, targetAttr, edgeAttr};
+			int n = 0;
+			for(int [] c : cols) n += c.length;
+			int [] all = new int[n];
+			n = 0;
+			for(int [] c : cols) {
+				System.arraycopy(c, 0, all, n, c.length);
+				n += c.length;
+			}
+			return new FieldTokenizer(delimiter, quoted, all);
+		}
+	}
+
+	private void convertRow(FieldTokenizer tok, CharSequence line, Columns c, GraphSink sink) throws IOException {
+		metrics.count(Counter.ROWS_READ);
+		tok.tokenize(line);
+		String sourceId = tok.get(c.sourceId[0]);
+		String id = tok.get(c.targetId[0]);
+		if(sourceId.length() == 0 || id.length() == 0) {
+			metrics.count(Counter.ROWS_REJECTED);
+			return;
+		}
+		AttributeHolder source = new AttributeHolder();
+		for(int i = 0; i < c.sourceId.length; i++) {
+			source.addToList("identifiers", tok.get(c.sourceId[i]));
+		}
+		addAttributes(source, tok, c, c.sourceAttr);
+		sink.node(sourceId, source);
+
+		AttributeHolder target = new AttributeHolder();
+		for(int i = 0; i < c.targetId.length; i++) {
+			target.addToList("identifiers", tok.get(c.targetId[i]));
+		}
+		addAttributes(target, tok, c, c.targetAttr);
+		sink.node(id, target);
+
+		AttributeHolder e = new AttributeHolder();
+		addAttributes(e, tok, c, c.edgeAttr);
+		sink.edge(null, sourceId, id, e);
 	}
-	
-	private static void writeGraph(Graph graph, File output) throws IOException {
-		PrintWriter po = new PrintWriter(output);
-		XGMMLWriter.write(graph, po);
-		po.close();
+
+	private void addAttributes(AttributeHolder attr, FieldTokenizer tok, Columns c, int [] columns) {
+		for(int col : columns) {
+			String value = tok.get(col);
+			String type = c.type[col];
+			if(type.equals(REAL)) {
+				try {
+					attr.setAttribute(c.header[col], Double.valueOf(value));
+					continue;
+				} catch (NumberFormatException e) {
+					// not a number, kept as string
+				}
+			} else if(type.equals(LIST)) {
+				attr.addToList(c.header[col], value);
+				continue;
+			}
+			attr.appendAttribute(c.header[col], value);
+		}
 	}
 
+	/**
+	 * converts the lines between two byte positions into a partial graph
+	 */
+	private class ParseRange extends RecursiveTask<ColumnarGraph> {
+		private static final long serialVersionUID = 1L;
+
+		private FileChannel channel;
+		private long start;
+		private long end;
+		private Columns columns;
+
+		ParseRange(FileChannel channel, long start, long end, Columns columns) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.columns = columns;
+		}
+
+		protected ColumnarGraph compute() {
+			try {
+				ColumnarGraph graph = new ColumnarGraph();
+				FieldTokenizer tok = columns.tokenizer();
+				MappedLines lines = new MappedLines(channel, start, end);
+				CharSequence line;
+				while((line = lines.next()) != null) {
+					convertRow(tok, line, columns, graph);
+				}
+				return graph;
+			} catch (IOException e) {
+				throw new RuntimeException("Could not read " + start + " - " + end, e);
+			}
+		}
+	}
+
+	// line aligned ends of the parts of the file, starting at start
+	private static List<Long> ranges(FileChannel channel, long start) throws IOException {
+		List<Long> ends = new ArrayList<Long>();
+		long size = channel.size();
+		while(start < size) {
+			start = start + RANGE_SIZE >= size ? size : nextLine(channel, start + RANGE_SIZE);
+			ends.add(start);
+		}
+		return ends;
+	}
+
+	// position after the next line break at or after pos
+	private static long nextLine(FileChannel channel, long pos) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		long size = channel.size();
+		while(pos < size) {
+			buf.clear();
+			int len = channel.read(buf, pos);
+			for(int i = 0; i < len; i++) {
+				if(buf.get(i) == '\n') return pos + i + 1;
+			}
+			pos += len;
+		}
+		return size;
+	}
 }
@@ -1,19 +1,18 @@
 package cytargetlinker.conversion;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.bridgedb.BridgeDb;
 import org.bridgedb.DataSource;
@@ -21,11 +20,18 @@ import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
 
-import cytargetlinker.conversion.graph.Graph;
-import cytargetlinker.conversion.graph.Graph.Edge;
-import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.graph.AttributeHolder;
+import cytargetlinker.conversion.graph.GraphSink;
 import cytargetlinker.conversion.graph.XGMMLWriter;
+import cytargetlinker.conversion.graph.XGMMLWriter.Storage;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.FieldTokenizer;
+import cytargetlinker.conversion.utils.MappingService;
+import cytargetlinker.conversion.utils.PersistentMappingCache;
+import cytargetlinker.conversion.utils.PreloadedIDMapper;
+import cytargetlinker.conversion.utils.RunMetrics;
+import cytargetlinker.conversion.utils.RunMetrics.Counter;
+import cytargetlinker.conversion.utils.RunMetrics.Phase;
 
 /**
  * Downloads TransmiR file version 1.2
@@ -41,34 +47,90 @@ public class TransmiR {
 	private static String outputFile = "/home/martina/TransmiR-mmu-1.2.xgmml";
 	private static String selectedOrganism = "mouse";
 	private static String organismCode = "mmu";
+	// GRAPH or COLUMNAR (compact, for very large networks) collect the network 
+	// in memory, STREAM spools nodes and edges to disk while they are added
+	private static Storage storage = Storage.GRAPH;
+	// keep identifier mapping results next to the BridgeDb database for the next run
+	private static boolean cacheMappings = true;
+	// load the Entrez Gene, Ensembl and UniProt mappings into memory at startup
+	private static boolean preloadMappings = true;
+	// JSON report with the times of the phases, counters and heap usage (null: no report)
+	private static String reportFile = null;
+	// seconds between progress lines, 0: no progress
+	private static int progressInterval = 10;
+	// only convert the rows that are new or changed since the previous output 
+	// and copy the rest, the changes are written to output.changes.tsv
+	private static boolean incremental = false;
+	
+	// convert several organisms in one pass over the file, each with its own
+	// BridgeDb database and output file (the arrays have the same order)
+	private static boolean multiOrganism = false;
+	private static String [] organisms = {"human", "mouse", "rat"};
+	private static String [] organismCodes = {"hsa", "mmu", "rno"};
+	private static String [] bridgedbMappingFiles = {
+		"/home/martina/Data/BridgeDb/Hs_Derby_20130701.bridge",
+		"/home/martina/Data/BridgeDb/Mm_Derby_20130701.bridge",
+		"/home/martina/Data/BridgeDb/Rn_Derby_20130701.bridge"};
+	private static String [] outputFiles = {
+		"/home/martina/TransmiR-hsa-1.2.xgmml",
+		"/home/martina/TransmiR-mmu-1.2.xgmml",
+		"/home/martina/TransmiR-rno-1.2.xgmml"};
 	
 	public static void main(String[] args) {
-		URL url;
 		try {
-			System.out.println("[INFO:]\tDownload TransmiR 1.2 file");
-			url = new URL(transmiRUrl);
-			URLConnection con = url.openConnection();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream()));
-			reader.readLine();
-			String line;
-			List<String> list = new ArrayList<String>();
-			while ((line = reader.readLine()) != null) {
-				list.add(line);
-			}
-			reader.close();
-			
+			RunMetrics metrics = new RunMetrics("TransmiR v1.2");
+			metrics.setProgressInterval(progressInterval);
+			metrics.start();
 			System.out.println("[INFO:]\tSet up identifier mapping.");
-			File bridgeFile = new File(bridgedbMappingFile);
 			Class.forName("org.bridgedb.rdb.IDMapperRdb");  
-			IDMapper geneMapper = BridgeDb.connect("idmapper-pgdb:" + bridgeFile.getAbsolutePath());
+			String [] bridgeFiles = multiOrganism ? bridgedbMappingFiles : new String[] { bridgedbMappingFile };
+			String [] outputs = multiOrganism ? outputFiles : new String[] { outputFile };
+			String [] names = multiOrganism ? organisms : new String[] { selectedOrganism };
+			String [] codes = multiOrganism ? organismCodes : new String[] { organismCode };
+			
+			List<TransmiR> converters = new ArrayList<TransmiR>();
+			for(int i = 0; i < names.length; i++) {
+				File bridgeFile = new File(bridgeFiles[i]);
+				MappingService mapping = new MappingService(connect(bridgeFile));
+				if(cacheMappings) mapping.setPersistentCache(PersistentMappingCache.open(bridgeFile));
+				File output = new File(outputs[i]);
+				GraphSink sink = incremental ? new IncrementalBuild(output, storage, IncrementalBuild.context("TransmiR v1.2", names[i], codes[i], bridgeFile)) 
+						: XGMMLWriter.open(output, storage);
+				TransmiR converter = new TransmiR(names[i], codes[i], mapping, sink);
+				converter.setMetrics(metrics);
+				converters.add(converter);
+			}
 			System.out.println("[INFO:]\tIdentifier mapping.database loaded");
 			
-			Graph graph = convert(list, geneMapper);
-			writeGraph(graph, new File(outputFile));
-			System.out.println("[INFO:]\tConversion is finished with " + geneNodes.size() + " TFs, " + miRNANodes.size() + " miRNAs and " + graph.getEdges().size() + " edges.");
+			System.out.println("[INFO:]\tDownload and convert TransmiR 1.2 file");
+			if(incremental) {
+				LineSource lines = LineSource.open(new URL(transmiRUrl), null);
+				convertIncremental(lines, converters);
+				lines.close();
+			} else {
+				LineSource lines = LineSource.open(new URL(transmiRUrl), null);
+				convert(lines, converters);
+				lines.close();
+			}
+			for(TransmiR transmir : converters) {
+				if(incremental) {
+					// convert(LineSource, List) closes the graphs itself
+					long t = System.nanoTime();
+					transmir.graph.close();
+					metrics.stop(Phase.WRITE, t);
+				}
+				metrics.add(transmir.mapper);
+				transmir.mapper.close();
+				System.out.println("[INFO:]\tConversion of " + transmir.organism + " is finished with " + transmir.getTFCount() + " TFs, " + transmir.getMiRNACount() + " miRNAs and " + transmir.graph.getEdgeCount() + " edges.");
+				System.out.println("[INFO:]\t" + transmir.mapper.getReport());
+				if(incremental) System.out.println("[INFO:]\t" + ((IncrementalBuild)transmir.graph).getReport());
+				IDMapper geneMapper = transmir.mapper.getMapper();
+				if(geneMapper instanceof PreloadedIDMapper) System.out.println("[INFO:]\t" + ((PreloadedIDMapper)geneMapper).getReport());
+			}
+			metrics.finish();
+			System.out.println("[INFO:]\t" + metrics.getSummary());
+			if(reportFile != null) metrics.writeReport(new File(reportFile));
 			
-		} catch (MalformedURLException e) {
-			System.err.println("Can not read TransmiR file.\n" + e.getMessage());
 		} catch (IOException e) {
 			System.err.println("Can not read TransmiR file.\n" + e.getMessage());
 		} catch (ClassNotFoundException e) {
@@ -78,99 +140,407 @@ public class TransmiR {
 		}
 	}
 	
-	private static Set<String> edges = new HashSet<String>();
-	private static Map<String, Node> geneNodes = new HashMap<String, Node>();
-	private static Map<String, Node> miRNANodes = new HashMap<String, Node>();
+	private static IDMapper connect(File bridgeFile) throws IDMapperException {
+		if(preloadMappings) {
+			PreloadedIDMapper preloaded = PreloadedIDMapper.load(bridgeFile, DataSource.getBySystemCode("L"), DataSource.getBySystemCode("En"), DataSource.getBySystemCode("S"));
+			System.out.println("[INFO:]\t" + bridgeFile.getName() + ": " + preloaded.getReport());
+			return preloaded;
+		}
+		return BridgeDb.connect("idmapper-pgdb:" + bridgeFile.getAbsolutePath());
+	}
+	
+	private Set<String> geneNodes = new HashSet<String>();
+	private Set<String> miRNANodes = new HashSet<String>();
+	
+	private String organism;
+	private String organismPrefix;
+	private RunMetrics metrics = new RunMetrics("TransmiR v1.2");
+	
+	/**
+	 * @param organism organism name as used in TransmiR (e.g. mouse)
+	 * @param organismPrefix miRBase prefix of the organism (e.g. mmu)
+	 */
+	public TransmiR(String organism, String organismPrefix) {
+		this.organism = organism;
+		this.organismPrefix = organismPrefix;
+	}
+	
+	// used by the conversion of several organisms
+	private MappingService mapper;
+	private GraphSink graph;
+	private List<String[]> chunk;
+	private ExecutorService executor;
+	private Future<?> pending;
+	
+	/**
+	 * converter for {@link #convert(LineSource, List)}, the interactions 
+	 * are mapped with mapper and added to graph
+	 */
+	public TransmiR(String organism, String organismPrefix, MappingService mapper, GraphSink graph) {
+		this(organism, organismPrefix);
+		this.mapper = mapper;
+		this.graph = graph;
+	}
+	
+	/**
+	 * the metrics of the conversion, one instance can be shared by the converters of a run
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	public RunMetrics getMetrics() {
+		return metrics;
+	}
+	
+	public int getTFCount() {
+		return geneNodes.size();
+	}
 	
-	private static Graph convert(List<String> interactions, IDMapper geneMapper) throws IDMapperException {
-		Graph graph = new Graph();
-		graph.setTitle("TransmiR v1.2");
-		graph.setAttribute(CommonAttributes.DATABASE.getName(), "TransmiR v1.2");
-		graph.setAttribute(CommonAttributes.TYPE.getName(), "TF-miRNA interaction");
+	public int getMiRNACount() {
+		return miRNANodes.size();
+	}
+	
+	// number of interactions for which the TFs are mapped at once
+	private final static int CHUNK_SIZE = 5000;
+	
+	/**
+	 * converts the interactions of the organism, the first line is the header
+	 */
+	public void convert(LineSource interactions, MappingService geneMapper, GraphSink graph) throws IDMapperException, IOException {
+		addGraph(graph);
 		
-		for(String line : interactions) {
-			String [] buffer = line.split("\t");
-			String geneName = buffer[0];
-			String entrez = buffer[1];
-			String miRNA = buffer[3];
-			if(buffer.length > 9) {
-				String active = buffer[7];
-				String pubmed = buffer[8];
-				String organism = buffer[9];
-				if(organism.equals(selectedOrganism)) {
-					Node source;
-					if(geneNodes.containsKey(entrez)) {
-						source = geneNodes.get(entrez);
-					} else {
-						source = addSourceNode(graph, entrez, geneMapper, geneName, organism);
-						geneNodes.put(entrez, source);
-					}
-					
-					
-					Node target;
-					if(miRNANodes.containsKey(organismCode + "-" + miRNA)) {
-						target = miRNANodes.get(organismCode + "-" + miRNA);
-					} else {
-						target = graph.addNode(organismCode + "-" + miRNA);
-						target.appendAttribute("identifiers", "[" + organismCode + "-" + miRNA + "]");
-						target.appendAttribute("label", organismCode + "-" + miRNA);
-						target.appendAttribute("name", organismCode + "-" + miRNA);
-						target.appendAttribute("biologicalType", "microRNA");
-						miRNANodes.put(organismCode + "-" + miRNA, target);
+		//gene	entrezid	tumor	mir	tumor_mir	mir_func	mir_disease	active	pmid	organism
+		interactions.next();
+		List<String[]> chunk = new ArrayList<String[]>(CHUNK_SIZE);
+		FieldTokenizer tok = FieldTokenizer.tsv(0, 1, 3, 7, 8, 9);
+		String line;
+		long t = System.nanoTime();
+		while((line = interactions.next()) != null) {
+			t = metrics.stop(Phase.READ, t);
+			metrics.count(Counter.ROWS_READ);
+			tok.tokenize(line);
+			if(tok.has(9) && !tok.isEmpty(9)) {
+				if(tok.equals(9, organism)) {
+					chunk.add(new String[] { tok.get(0), tok.get(1), tok.get(3), tok.get(7), tok.get(8), tok.get(9) });
+				} else {
+					metrics.count(Counter.ROWS_FILTERED);
+				}
+			} else {
+				System.out.println("No organism specified for interaction " + tok.get(1) + " -> " + tok.get(3));
+				metrics.count(Counter.ROWS_REJECTED);
+			}
+			t = metrics.stop(Phase.PARSE, t);
+			if(chunk.size() == CHUNK_SIZE) {
+				convertChunk(chunk, geneMapper, graph);
+				t = System.nanoTime();
+			}
+		}
+		metrics.stop(Phase.READ, t);
+		convertChunk(chunk, geneMapper, graph);
+	}
+	
+	/**
+	 * converts the interactions of the organism that are new or changed since 
+	 * the previous build, the first line is the header. All rows of the organism
+	 * are read first, then the nodes and edges that did not change are copied 
+	 * and only the changed rows are mapped and converted.
+	 */
+	public void convert(LineSource interactions, MappingService geneMapper, IncrementalBuild build) throws IDMapperException, IOException {
+		Rows rows = new Rows(build);
+		readRows(interactions, Collections.singletonList(rows), metrics);
+		convertChanged(rows, geneMapper);
+	}
+	
+	/**
+	 * incremental builds of all organisms in one pass over the file, the 
+	 * graphs of the converters are {@link IncrementalBuild}s. The rows are
+	 * split by organism while the file is read, then the changed rows of 
+	 * every organism are converted, see {@link #convert(LineSource, MappingService, IncrementalBuild)}.
+	 */
+	public static void convertIncremental(LineSource interactions, List<TransmiR> converters) throws IDMapperException, IOException {
+		List<Rows> all = new ArrayList<Rows>();
+		for(TransmiR c : converters) {
+			all.add(c.new Rows((IncrementalBuild)c.graph));
+		}
+		readRows(interactions, all, converters.get(0).metrics);
+		for(Rows rows : all) {
+			rows.converter().convertChanged(rows, rows.converter().mapper);
+		}
+	}
+	
+	// reads the rows of the organisms and records them in their builds
+	private static void readRows(LineSource interactions, List<Rows> all, RunMetrics metrics) throws IOException {
+		interactions.next();
+		FieldTokenizer tok = FieldTokenizer.tsv(0, 1, 3, 7, 8, 9);
+		String line;
+		long t = System.nanoTime();
+		while((line = interactions.next()) != null) {
+			t = metrics.stop(Phase.READ, t);
+			metrics.count(Counter.ROWS_READ);
+			tok.tokenize(line);
+			if(tok.has(9) && !tok.isEmpty(9)) {
+				boolean converted = false;
+				for(Rows rows : all) {
+					if(tok.equals(9, rows.converter().organism)) {
+						rows.add(line, tok);
+						converted = true;
 					}
-					
-					addEdge(source, target, graph, pubmed, active);
 				}
+				if(!converted) metrics.count(Counter.ROWS_FILTERED);
 			} else {
-				System.out.println("No organism specified for interaction " + entrez + " -> " + miRNA);
+				System.out.println("No organism specified for interaction " + tok.get(1) + " -> " + tok.get(3));
+				metrics.count(Counter.ROWS_REJECTED);
 			}
-			
-			
+			t = metrics.stop(Phase.PARSE, t);
 		}
-		//gene	entrezid	tumor	mir	tumor_mir	mir_func	mir_disease	active	pmid	organism
+		metrics.stop(Phase.READ, t);
+	}
+	
+	// copies the nodes and edges that did not change and converts the changed rows
+	private void convertChanged(Rows rows, MappingService geneMapper) throws IDMapperException, IOException {
+		IncrementalBuild build = rows.build;
+		long t = System.nanoTime();
+		addGraph(build);
+		// copied nodes are neither mapped nor added again
+		for(String [] row : rows.rows) {
+			if(build.isCopied(row[1])) geneNodes.add(row[1]);
+			String target = organismPrefix + "-" + row[2];
+			if(build.isCopied(target)) miRNANodes.add(target);
+		}
+		metrics.stop(Phase.BUILD, t);
+		List<String[]> chunk = new ArrayList<String[]>(CHUNK_SIZE);
+		for(int i = 0; i < rows.rows.size(); i++) {
+			if(!build.isChanged(i)) continue;
+			chunk.add(rows.rows.get(i));
+			if(chunk.size() == CHUNK_SIZE) convertChunk(chunk, geneMapper, build);
+		}
+		convertChunk(chunk, geneMapper, build);
+	}
+	
+	/**
+	 * The rows of the organism for an incremental build
+	 */
+	private class Rows {
+		IncrementalBuild build;
+		List<String[]> rows = new ArrayList<String[]>();
+		// the nodes are added by the first row of the TF or miRNA
+		Set<String> genes = new HashSet<String>();
+		Set<String> miRNAs = new HashSet<String>();
+		List<String> keys = new ArrayList<String>(3);
 		
+		Rows(IncrementalBuild build) {
+			this.build = build;
+		}
+		
+		TransmiR converter() {
+			return TransmiR.this;
+		}
 		
-		return graph;
+		void add(String line, FieldTokenizer tok) {
+			String [] row = { tok.get(0), tok.get(1), tok.get(3), tok.get(7), tok.get(8), tok.get(9) };
+			String target = organismPrefix + "-" + row[2];
+			keys.clear();
+			keys.add(IncrementalBuild.edgeKey(row[1], target));
+			if(genes.add(row[1])) keys.add(row[1]);
+			if(miRNAs.add(target)) keys.add(target);
+			build.record(line, keys.toArray(new String[keys.size()]));
+			rows.add(row);
+		}
+	}
+	
+	/**
+	 * converts the interactions of all organisms in one pass over the file,
+	 * the first line is the header. The rows are split by organism, every
+	 * organism is converted on its own thread. After its last rows the graph
+	 * of the organism is closed on the same thread, so the outputs are 
+	 * written at the same time. The graphs are not closed if the conversion fails.
+	 */
+	public static void convert(LineSource interactions, List<TransmiR> converters) throws IDMapperException, IOException {
+		for(TransmiR c : converters) {
+			c.addGraph(c.graph);
+			c.chunk = new ArrayList<String[]>(CHUNK_SIZE);
+			c.executor = Executors.newSingleThreadExecutor();
+		}
+		try {
+			interactions.next();
+			FieldTokenizer tok = FieldTokenizer.tsv(0, 1, 3, 7, 8, 9);
+			RunMetrics metrics = converters.get(0).metrics;
+			String line;
+			long t = System.nanoTime();
+			while((line = interactions.next()) != null) {
+				t = metrics.stop(Phase.READ, t);
+				metrics.count(Counter.ROWS_READ);
+				tok.tokenize(line);
+				if(tok.has(9) && !tok.isEmpty(9)) {
+					boolean converted = false;
+					for(TransmiR c : converters) {
+						if(tok.equals(9, c.organism)) {
+							c.chunk.add(new String[] { tok.get(0), tok.get(1), tok.get(3), tok.get(7), tok.get(8), tok.get(9) });
+							converted = true;
+						}
+					}
+					if(!converted) metrics.count(Counter.ROWS_FILTERED);
+				} else {
+					System.out.println("No organism specified for interaction " + tok.get(1) + " -> " + tok.get(3));
+					metrics.count(Counter.ROWS_REJECTED);
+				}
+				t = metrics.stop(Phase.PARSE, t);
+				for(TransmiR c : converters) {
+					if(c.chunk.size() == CHUNK_SIZE) {
+						// waits for the previous chunk of the organism
+						c.submit();
+						t = System.nanoTime();
+					}
+				}
+			}
+			metrics.stop(Phase.READ, t);
+			for(TransmiR c : converters) {
+				c.submit();
+				c.submitClose();
+			}
+			for(TransmiR c : converters) {
+				c.await();
+			}
+		} finally {
+			for(TransmiR c : converters) {
+				c.executor.shutdownNow();
+			}
+		}
+	}
+	
+	// converts the chunk on the thread of the organism after the previous 
+	// chunk, so that at most two chunks per organism are in memory
+	private void submit() throws IDMapperException, IOException {
+		await();
+		final List<String[]> rows = chunk;
+		chunk = new ArrayList<String[]>(CHUNK_SIZE);
+		pending = executor.submit(new Callable<Void>() {
+			public Void call() throws IDMapperException, IOException {
+				convertChunk(rows, mapper, graph);
+				return null;
+			}
+		});
 	}
 	
-	private static Node addSourceNode(Graph graph, String entrez, IDMapper mapper, String geneName, String organism) throws IDMapperException {
-		Node tf = graph.addNode(entrez);
-		String identifiers = "[" + entrez;
+	// closes the graph on the thread of the organism after the last chunk
+	private void submitClose() {
+		final Future<?> last = pending;
+		pending = executor.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				try {
+					if(last != null) last.get();
+				} catch (ExecutionException e) {
+					// the graph of a failed conversion is not written
+					if(e.getCause() instanceof Exception) throw (Exception)e.getCause();
+					throw (Error)e.getCause();
+				}
+				long t = System.nanoTime();
+				graph.close();
+				metrics.stop(Phase.WRITE, t);
+				return null;
+			}
+		});
+	}
+	
+	private void await() throws IDMapperException, IOException {
+		if(pending == null) return;
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Conversion of " + organism + " was interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IDMapperException) throw (IDMapperException)cause;
+			if(cause instanceof IOException) throw (IOException)cause;
+			throw new RuntimeException(cause);
+		} finally {
+			pending = null;
+		}
+	}
+	
+	private void addGraph(GraphSink graph) throws IOException {
+		AttributeHolder graphAttributes = new AttributeHolder();
+		graphAttributes.setAttribute(CommonAttributes.DATABASE.getName(), "TransmiR v1.2");
+		graphAttributes.setAttribute(CommonAttributes.TYPE.getName(), "TF-miRNA interaction");
+		graph.graph("TransmiR v1.2", graphAttributes);
+	}
+	
+	// maps the TFs of the chunk at once before the nodes and edges are added,
+	// rows are gene, entrezid, mir, active, pmid, organism
+	private void convertChunk(List<String[]> chunk, MappingService geneMapper, GraphSink graph) throws IDMapperException, IOException {
+		long t = System.nanoTime();
+		for(String [] buffer : chunk) {
+			if(!geneNodes.contains(buffer[1])) {
+				geneMapper.request(new Xref(buffer[1], DataSource.getBySystemCode("L")), 
+						DataSource.getBySystemCode("En"), DataSource.getBySystemCode("S"));
+			}
+		}
+		geneMapper.resolve();
+		t = metrics.stop(Phase.MAPPING, t);
+		
+		for(String [] buffer : chunk) {
+			String geneName = buffer[0];
+			String entrez = buffer[1];
+			String miRNA = buffer[2];
+			String active = buffer[3];
+			String pubmed = buffer[4];
+			String organism = buffer[5];
+			String source = entrez;
+			if(!geneNodes.contains(entrez)) {
+				addSourceNode(graph, entrez, geneMapper, geneName, organism);
+				geneNodes.add(entrez);
+			}
+			
+			String target = organismPrefix + "-" + miRNA;
+			if(!miRNANodes.contains(target)) {
+				AttributeHolder attr = new AttributeHolder();
+				attr.addToList("identifiers", target);
+				attr.appendAttribute("label", target);
+				attr.appendAttribute("name", target);
+				attr.appendAttribute("biologicalType", "microRNA");
+				graph.node(target, attr);
+				metrics.count(Counter.NODES);
+				miRNANodes.add(target);
+			}
+			
+			addEdge(source, target, graph, pubmed, active);
+		}
+		chunk.clear();
+		metrics.stop(Phase.BUILD, t);
+	}
+	
+	private void addSourceNode(GraphSink graph, String entrez, MappingService mapper, String geneName, String organism) throws IDMapperException, IOException {
+		AttributeHolder tf = new AttributeHolder();
+		tf.addToList("identifiers", entrez);
 		Xref x = new Xref(entrez, DataSource.getBySystemCode("L"));
-		Set<Xref> res = mapper.mapID(x, DataSource.getBySystemCode("En"));
+		Set<Xref> res = mapper.map(x, DataSource.getBySystemCode("En"));
 		for(Xref xref : res) {
-			identifiers = identifiers + "," + xref.getId();
+			tf.addToList("identifiers", xref.getId());
 		}
-		Set<Xref> res2 = mapper.mapID(x, DataSource.getBySystemCode("S"));
+		Set<Xref> res2 = mapper.map(x, DataSource.getBySystemCode("S"));
 		for(Xref xref : res2) {
-			identifiers = identifiers + "," + xref.getId();
+			tf.addToList("identifiers", xref.getId());
 		}
-		identifiers = identifiers + "]";
-		tf.appendAttribute("identifiers", identifiers);
 		tf.appendAttribute("geneName", geneName);
 		tf.appendAttribute("label", geneName);
 		tf.appendAttribute("name", geneName);
 		tf.appendAttribute("organism", organism);
 		tf.appendAttribute("entrez", entrez);
 		tf.appendAttribute("biologicalType", "transcriptionFactor");
-		
-		return tf;
+		graph.node(entrez, tf);
+		metrics.count(Counter.NODES);
 	}
 	
-	private static void addEdge(Node source, Node target, Graph graph, String pubmed, String active) {
-		String id = source.getId() + "-" + target.getId();
-		if(!edges.contains(id)) {
-			Edge e = graph.addEdge(id, source, target);
-			e.setAttribute("datasource", "TransmiR v1.2");
-			e.setAttribute("interactionType", "TF-miRNA interaction");
-			e.setAttribute("pubmed", pubmed);
-			e.setAttribute("activity", active);
-		}
-	}
-
-	private static void writeGraph(Graph graph, File output) throws IOException {
-		PrintWriter po = new PrintWriter(output);
-		XGMMLWriter.write(graph, po);
-		po.close();
+	private void addEdge(String source, String target, GraphSink graph, String pubmed, String active) throws IOException {
+		AttributeHolder e = new AttributeHolder();
+		e.setAttribute("datasource", "TransmiR v1.2");
+		e.setAttribute("interactionType", "TF-miRNA interaction");
+		e.setAttribute("pubmed", pubmed);
+		e.setAttribute("activity", active);
+		// rows of the same TF and miRNA: the sink keeps the values of the last row, the id is source-target
+		int edges = graph.getEdgeCount();
+		graph.edge(null, source, target, e);
+		if(graph.getEdgeCount() > edges) metrics.count(Counter.EDGES);
 	}
 }
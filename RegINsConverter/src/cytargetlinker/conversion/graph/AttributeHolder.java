@@ -1,20 +1,47 @@
 package cytargetlinker.conversion.graph;
 
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * 
+ * Attributes of a graph, node or edge. When the attributes of the same
+ * node or edge are added more than once (see {@link #appendAttributes(AttributeHolder)}),
+ * a value set with setAttribute replaces the current value (the last one
+ * wins), appended values and lists are merged. All sinks follow this rule.
  * @author Thomas
  *
  */
 public class AttributeHolder {
+	// kinds of values in the binary form, see write(DataOutputStream)
+	private final static byte SET = 0;
+	private final static byte APPENDED = 1;
+	private final static byte NUMBER = 2;
+	private final static byte VALUE_SET = 3;
+	private final static byte LIST = 4;
+	
 	Map<String, Object> attributes = new HashMap<String, Object>();
+	// names of the string values that were appended, null if there are none
+	Set<String> appended;
 
 	public void setAttribute(String name, String value) {
 		attributes.put(name, value);
+		setAppended(name, false);
+	}
+
+	/**
+	 * numbers are written as real attributes, the value 
+	 * replaces the current one
+	 */
+	public void setAttribute(String name, Number value) {
+		attributes.put(name, value);
+		setAppended(name, false);
 	}
 
 	public Object getAttribute(String name) {
@@ -30,11 +57,155 @@ public class AttributeHolder {
 	}
 	
 	public void appendAttribute(String name, String value, String sep) {
-		String curr = attributes.get(name) == null ? "" : attributes.get(name).toString();
-		if("".equals(curr)) curr = value;
-		else if(!curr.startsWith(value) && !curr.contains(sep + value)) {
-			curr += sep + value;
+		attributes.put(name, append(attributes.get(name), value, sep));
+		setAppended(name, true);
+	}
+	
+	/**
+	 * @return true if the value was appended, false if it was set
+	 */
+	public boolean isAppended(String name) {
+		return appended != null && appended.contains(name);
+	}
+	
+	void setAppended(String name, boolean a) {
+		if(a) {
+			if(appended == null) appended = new HashSet<String>();
+			appended.add(name);
+		} else if(appended != null) {
+			appended.remove(name);
+		}
+	}
+	
+	/**
+	 * The first value is stored as is, further distinct values are collected 
+	 * in a {@link ValueSet} that is only joined when the graph is written.
+	 * @return the attribute value after appending value to curr
+	 */
+	static Object append(Object curr, String value, String sep) {
+		if("".equals(value) && curr != null) return curr;
+		if(curr instanceof ValueSet && ((ValueSet)curr).getSeparator().equals(sep)) {
+			((ValueSet)curr).add(value);
+			return curr;
+		}
+		String str = curr == null ? "" : curr.toString();
+		if("".equals(str)) return value;
+		if(str.equals(value)) return str;
+		ValueSet set = new ValueSet(sep);
+		set.add(str);
+		set.add(value);
+		return set;
+	}
+	
+	/**
+	 * adds a value to a list attribute, the list is created if 
+	 * the attribute doesn't exist yet
+	 */
+	public void addToList(String name, String value) {
+		Object curr = attributes.get(name);
+		ValueList list;
+		if(curr instanceof ValueList) {
+			list = (ValueList)curr;
+		} else {
+			list = new ValueList();
+			attributes.put(name, list);
+		}
+		list.add(value);
+	}
+	
+	/**
+	 * adds all attributes of another holder: values set with setAttribute
+	 * replace the current value, appended values are appended like in 
+	 * {@link #appendAttribute(String, String)} and lists are extended 
+	 * with the values they don't contain yet
+	 */
+	public void appendAttributes(AttributeHolder other) {
+		for(Map.Entry<String, Object> e : other.attributes.entrySet()) {
+			String name = e.getKey();
+			boolean a = other.isAppended(name);
+			attributes.put(name, merge(attributes.get(name), e.getValue(), a));
+			setAppended(name, a);
+		}
+	}
+	
+	/**
+	 * @param appended false if value was set, it replaces curr
+	 * @return the attribute value after merging value into curr, 
+	 * curr may be changed, value is never changed or reused
+	 */
+	static Object merge(Object curr, Object value, boolean appended) {
+		if(value instanceof ValueList) {
+			ValueList list = curr instanceof ValueList ? (ValueList)curr : new ValueList();
+			list.addAll((ValueList)value);
+			return list;
+		} else if(value instanceof ValueSet) {
+			ValueSet set = (ValueSet)value;
+			for(String v : set.getValues()) {
+				curr = append(curr, v, set.getSeparator());
+			}
+			return curr;
+		} else if(value instanceof String && appended) {
+			return append(curr, (String)value, "; ");
+		}
+		return value;
+	}
+	
+	/**
+	 * writes the attributes with their kind (set, appended, list...),
+	 * numbers are written as text and read as {@link XGMMLReader.Real}
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(attributes.size());
+		for(Map.Entry<String, Object> e : attributes.entrySet()) {
+			SortedSpool.write(out, e.getKey());
+			Object value = e.getValue();
+			if(value instanceof ValueList) {
+				out.writeByte(LIST);
+				List<String> values = ((ValueList)value).getValues();
+				out.writeInt(values.size());
+				for(String v : values) SortedSpool.write(out, v);
+			} else if(value instanceof ValueSet) {
+				ValueSet set = (ValueSet)value;
+				out.writeByte(VALUE_SET);
+				SortedSpool.write(out, set.getSeparator());
+				out.writeInt(set.size());
+				for(String v : set.getValues()) SortedSpool.write(out, v);
+			} else if(value instanceof Number) {
+				out.writeByte(NUMBER);
+				SortedSpool.write(out, value.toString());
+			} else {
+				out.writeByte(isAppended(e.getKey()) ? APPENDED : SET);
+				SortedSpool.write(out, value == null ? null : value.toString());
+			}
+		}
+	}
+	
+	/**
+	 * reads attributes written by {@link #write(DataOutputStream)}
+	 */
+	static AttributeHolder read(DataInputStream in) throws IOException {
+		AttributeHolder h = new AttributeHolder();
+		int n = in.readInt();
+		for(int i = 0; i < n; i++) {
+			String name = SortedSpool.read(in);
+			byte kind = in.readByte();
+			if(kind == LIST) {
+				ValueList list = new ValueList();
+				int size = in.readInt();
+				for(int j = 0; j < size; j++) list.add(SortedSpool.read(in));
+				h.attributes.put(name, list);
+			} else if(kind == VALUE_SET) {
+				ValueSet set = new ValueSet(SortedSpool.read(in));
+				int size = in.readInt();
+				for(int j = 0; j < size; j++) set.add(SortedSpool.read(in));
+				h.attributes.put(name, set);
+			} else if(kind == NUMBER) {
+				h.attributes.put(name, new XGMMLReader.Real(SortedSpool.read(in)));
+			} else {
+				h.attributes.put(name, SortedSpool.read(in));
+				if(kind == APPENDED) h.setAppended(name, true);
+			}
 		}
-		attributes.put(name, curr);
+		return h;
 	}
 }
@@ -0,0 +1,236 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory compact alternative to {@link Graph} for very large networks.
+ * Nodes and edges are identified by int indices, edges are stored as
+ * source and target index arrays and the attributes are kept in one
+ * column per attribute name. Columns with few distinct values (like
+ * biologicalType or datasource) are dictionary encoded.
+ *
+ * Attributes are merged like in {@link Graph}, see {@link AttributeHolder}.
+ * @author Thomas
+ *
+ */
+public class ColumnarGraph implements GraphSink {
+	String title = "";
+	AttributeHolder attributes = new AttributeHolder();
+
+	private Map<String, Integer> nodeIndex = new HashMap<String, Integer>();
+	private String [] nodeIds = new String[1024];
+	private int nodeCount = 0;
+
+	// edges are identified by source and target index, the id is null for source-target
+	private LongIntMap edgeIndex = new LongIntMap();
+	private String [] edgeIds = new String[1024];
+	private int [] src = new int[1024];
+	private int [] tgt = new int[1024];
+	private int edgeCount = 0;
+
+	private Schema nodeAttributes = new Schema();
+	private Schema edgeAttributes = new Schema();
+
+	public void graph(String title, AttributeHolder attributes) {
+		this.title = title;
+		this.attributes.appendAttributes(attributes);
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public AttributeHolder getAttributes() {
+		return attributes;
+	}
+
+	public void node(String id, AttributeHolder attributes) {
+		nodeAttributes.append(addNode(id), attributes);
+	}
+
+	public void edge(String id, String src, String tgt, AttributeHolder attributes) {
+		int s = addNode(src);
+		int t = addNode(tgt);
+		int e = edgeIndex.putIfAbsent(LongIntMap.key(s, t), edgeCount);
+		if(e < 0) {
+			e = edgeCount++;
+			if(e == edgeIds.length) {
+				edgeIds = Arrays.copyOf(edgeIds, e * 2);
+				this.src = Arrays.copyOf(this.src, e * 2);
+				this.tgt = Arrays.copyOf(this.tgt, e * 2);
+			}
+			edgeIds[e] = id;
+			this.src[e] = s;
+			this.tgt[e] = t;
+		}
+		edgeAttributes.append(e, attributes);
+	}
+
+	/**
+	 * @return the index of the node, the node is added if it doesn't exist yet
+	 */
+	public int addNode(String id) {
+		Integer i = nodeIndex.get(id);
+		if(i == null) {
+			i = nodeCount++;
+			if(i == nodeIds.length) {
+				nodeIds = Arrays.copyOf(nodeIds, i * 2);
+			}
+			nodeIds[i] = id;
+			nodeIndex.put(id, i);
+		}
+		return i;
+	}
+
+	public int getNodeCount() { return nodeCount; }
+	public int getEdgeCount() { return edgeCount; }
+
+	public String getNodeId(int node) { return nodeIds[node]; }
+	public String getEdgeId(int edge) {
+		String id = edgeIds[edge];
+		return id != null ? id : Graph.edgeId(nodeIds[src[edge]], nodeIds[tgt[edge]]);
+	}
+	public int getSource(int edge) { return src[edge]; }
+	public int getTarget(int edge) { return tgt[edge]; }
+
+	public List<String> getNodeAttributeNames() { return nodeAttributes.names; }
+	public List<String> getEdgeAttributeNames() { return edgeAttributes.names; }
+
+	public Object getNodeAttribute(int node, String name) {
+		return nodeAttributes.get(node, name);
+	}
+
+	public Object getEdgeAttribute(int edge, String name) {
+		return edgeAttributes.get(edge, name);
+	}
+
+	public void close() {}
+
+	/**
+	 * adds the nodes and edges to another sink in the order they were
+	 * added here, e.g. to merge partial graphs built by several threads
+	 */
+	public void copyTo(GraphSink sink) throws IOException {
+		for(int n = 0; n < nodeCount; n++) {
+			sink.node(nodeIds[n], nodeAttributes.holder(n));
+		}
+		for(int e = 0; e < edgeCount; e++) {
+			sink.edge(edgeIds[e], nodeIds[src[e]], nodeIds[tgt[e]], edgeAttributes.holder(e));
+		}
+	}
+
+	/**
+	 * The attribute names used by the nodes or edges,
+	 * each name is stored once together with its column.
+	 */
+	static class Schema {
+		List<String> names = new ArrayList<String>();
+		List<Column> columns = new ArrayList<Column>();
+		Map<String, Column> byName = new HashMap<String, Column>();
+
+		void append(int element, AttributeHolder attributes) {
+			for(String name : attributes.getAttributeNames()) {
+				Object value = attributes.getAttribute(name);
+				if(value == null) continue;
+				Column c = byName.get(name);
+				if(c == null) {
+					c = new Column();
+					names.add(name);
+					columns.add(c);
+					byName.put(name, c);
+				}
+				boolean appended = attributes.isAppended(name);
+				c.set(element, AttributeHolder.merge(c.get(element), value, appended));
+				c.appended.set(element, appended);
+			}
+		}
+
+		Object get(int element, String name) {
+			Column c = byName.get(name);
+			return c == null ? null : c.get(element);
+		}
+
+		AttributeHolder holder(int element) {
+			AttributeHolder h = new AttributeHolder();
+			for(int i = 0; i < names.size(); i++) {
+				Object value = columns.get(i).get(element);
+				if(value != null) {
+					h.attributes.put(names.get(i), value);
+					if(columns.get(i).appended.get(element)) h.setAppended(names.get(i), true);
+				}
+			}
+			return h;
+		}
+	}
+
+	/**
+	 * Values of one attribute, indexed by node or edge. Strings and numbers
+	 * are dictionary encoded until there are more than MAX_DICTIONARY_SIZE
+	 * distinct values, then the column switches to plain references. Lists
+	 * and sets are changed when values are appended, they are always kept
+	 * as references.
+	 */
+	static class Column {
+		final static int MAX_DICTIONARY_SIZE = 4096;
+
+		// dictionary code + 1 per element, 0 means no encoded value
+		int [] codes = new int[1024];
+		List<Object> dictionary = new ArrayList<Object>();
+		Map<Object, Integer> lookup = new HashMap<Object, Integer>();
+
+		// values that are not encoded, all values after the dictionary is full
+		Object [] values;
+		// elements with an appended string value
+		BitSet appended = new BitSet();
+
+		Object get(int i) {
+			if(codes != null && i < codes.length && codes[i] != 0) {
+				return dictionary.get(codes[i] - 1);
+			}
+			return values != null && i < values.length ? values[i] : null;
+		}
+
+		void set(int i, Object value) {
+			if(codes != null && (value instanceof String || value instanceof Number)) {
+				Integer code = lookup.get(value);
+				if(code == null && dictionary.size() < MAX_DICTIONARY_SIZE) {
+					code = dictionary.size() + 1;
+					dictionary.add(value);
+					lookup.put(value, code);
+				}
+				if(code != null) {
+					if(i >= codes.length) {
+						codes = Arrays.copyOf(codes, Math.max(i + 1, codes.length * 2));
+					}
+					codes[i] = code;
+					if(values != null && i < values.length) values[i] = null;
+					return;
+				}
+				decode();
+			}
+			if(codes != null && i < codes.length) codes[i] = 0;
+			if(values == null) {
+				values = new Object[Math.max(i + 1, codes.length)];
+			} else if(i >= values.length) {
+				values = Arrays.copyOf(values, Math.max(i + 1, values.length * 2));
+			}
+			values[i] = value;
+		}
+
+		private void decode() {
+			values = values == null ? new Object[codes.length] : Arrays.copyOf(values, Math.max(values.length, codes.length));
+			for(int i = 0; i < codes.length; i++) {
+				if(codes[i] != 0) values[i] = dictionary.get(codes[i] - 1);
+			}
+			codes = null;
+			dictionary = null;
+			lookup = null;
+		}
+	}
+}
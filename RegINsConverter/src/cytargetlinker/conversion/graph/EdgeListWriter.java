@@ -0,0 +1,66 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+
+/**
+ * Writes the edges of a graph as tab separated table, e.g. for R or
+ * pandas: a header line with source, target and the names of the edge
+ * attributes, then one line per edge. The attribute names are collected
+ * before the edges are written. List values are separated by
+ * LIST_SEPARATOR, tabs and line breaks in values are replaced by spaces.
+ * Node attributes are not written.
+ * @author Thomas
+ *
+ */
+public class EdgeListWriter {
+	final static String LIST_SEPARATOR = "; ";
+
+	public static void write(Graph graph, Writer out) throws IOException {
+		Set<String> names = new LinkedHashSet<String>();
+		for(Edge e : graph.getEdges()) {
+			names.addAll(e.getAttributeNames());
+		}
+
+		out.write("source\ttarget");
+		for(String a : names) {
+			out.write('\t');
+			out.write(clean(a));
+		}
+		out.write('\n');
+
+		for(Edge e : graph.getEdges()) {
+			out.write(clean(e.getSrc().getId()));
+			out.write('\t');
+			out.write(clean(e.getTgt().getId()));
+			for(String a : names) {
+				out.write('\t');
+				Object value = e.getAttribute(a);
+				if(value instanceof ValueList) {
+					out.write(clean(((ValueList)value).join(LIST_SEPARATOR)));
+				} else if(value != null) {
+					out.write(clean(value.toString()));
+				}
+			}
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/**
+	 * @return the value with tabs and line breaks replaced by spaces
+	 */
+	static String clean(String value) {
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '\t' || c == '\n' || c == '\r') {
+				return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+			}
+		}
+		return value;
+	}
+}
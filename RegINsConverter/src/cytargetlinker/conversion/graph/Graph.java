@@ -1,20 +1,27 @@
 package cytargetlinker.conversion.graph;
 
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * 
+ * Network in memory. Edges are identified by their source and target
+ * node, they are found by the indices of the nodes without building
+ * a string. Edges added without id get the id source-target when 
+ * it is needed (see {@link Edge#getId()}).
  * @author Thomas
  *
  */
-public class Graph extends AttributeHolder {
+public class Graph extends AttributeHolder implements GraphSink {
 	String title = "";
 	
 	Map<String, Node> nodes = new HashMap<String, Node>();
-	Map<String, Edge> edges = new HashMap<String, Edge>();
+	List<Edge> edges = new ArrayList<Edge>();
+	// edge index by the packed indices of source and target
+	private LongIntMap edgeIndex = new LongIntMap();
 
 	public void setTitle(String title) {
 		this.title = title;
@@ -28,27 +35,61 @@ public class Graph extends AttributeHolder {
 		Node n = nodes.get(id);
 		if(n == null) { 
 			n = new Node(id);
+			n.index = nodes.size();
 			nodes.put(id, n);
 		}
 		return n;
 	}
 	
+	/**
+	 * @param id null for the default id source-target
+	 * @return the new edge or the existing edge from src to tgt
+	 */
 	public Edge addEdge(String id, Node src, Node tgt) {
-		Edge e = edges.get(id);
-		if(e == null) {
-			e = new Edge(id, src, tgt);
-			edges.put(id, e);
-		}
+		int i = edgeIndex.putIfAbsent(LongIntMap.key(src.index, tgt.index), edges.size());
+		if(i >= 0) return edges.get(i);
+		Edge e = new Edge(id, src, tgt);
+		edges.add(e);
 		return e;
 	}
 	
 	public Node getNode(String id) { return nodes.get(id); }
 	
+	public void graph(String title, AttributeHolder attributes) {
+		setTitle(title);
+		appendAttributes(attributes);
+	}
+	
+	public void node(String id, AttributeHolder attributes) {
+		addNode(id).appendAttributes(attributes);
+	}
+	
+	public void edge(String id, String src, String tgt, AttributeHolder attributes) {
+		addEdge(id, addNode(src), addNode(tgt)).appendAttributes(attributes);
+	}
+	
+	public int getNodeCount() { return nodes.size(); }
+	public int getEdgeCount() { return edges.size(); }
+	
+	public void close() {}
+	
 	public Collection<Node> getNodes() { return nodes.values(); }
-	public Collection<Edge> getEdges() { return edges.values(); }
+	/**
+	 * @return the edges in the order they were added
+	 */
+	public Collection<Edge> getEdges() { return edges; }
+	
+	/**
+	 * @return the id of an edge that was added without id
+	 */
+	static String edgeId(String src, String tgt) {
+		return src + "-" + tgt;
+	}
 	
 	public class Node extends AttributeHolder {
 		String id;
+		// position in the order the nodes were added
+		int index;
 		
 		public Node(String id) {
 			this.id = id;
@@ -83,7 +124,7 @@ public class Graph extends AttributeHolder {
 		}
 		
 		public String getId() {
-			return id;
+			return id != null ? id : edgeId(src.id, tgt.id);
 		}
 	}
 }
@@ -0,0 +1,128 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes a graph as GraphML (http://graphml.graphdrawing.org) for tools
+ * that don't read xgmml. Nodes and edges are streamed to the output like
+ * in {@link XGMMLWriter}, no document is built. GraphML declares all keys
+ * before the graph, so the attribute names (and whether all values of an
+ * attribute are numbers) are collected first. List attributes are written
+ * as text with the values separated by LIST_SEPARATOR.
+ * @author Thomas
+ *
+ */
+public class GraphMLWriter {
+	final static String NS = "http://graphml.graphdrawing.org/xmlns";
+	final static String LIST_SEPARATOR = "; ";
+	final static String TITLE = "title";
+
+	public static void write(Graph graph, Writer out) throws IOException {
+		Keys graphKeys = new Keys("g");
+		// the title is written as attribute, unless the graph has a title attribute
+		boolean title = graph.getAttribute(TITLE) == null;
+		if(title) graphKeys.add(TITLE, graph.getTitle());
+		graphKeys.add(graph);
+		Keys nodeKeys = new Keys("n");
+		for(Node n : graph.getNodes()) nodeKeys.add(n);
+		Keys edgeKeys = new Keys("e");
+		for(Edge e : graph.getEdges()) edgeKeys.add(e);
+
+		PrettyXMLWriter xml = new PrettyXMLWriter(out);
+		xml.startDocument();
+		xml.startElement("graphml");
+		xml.attribute("xmlns", NS);
+		graphKeys.declare(xml, "graph");
+		nodeKeys.declare(xml, "node");
+		edgeKeys.declare(xml, "edge");
+
+		xml.startElement("graph");
+		xml.attribute("id", "G");
+		xml.attribute("edgedefault", "directed");
+		if(title) data(xml, graphKeys.get(TITLE), graph.getTitle());
+		data(xml, graphKeys, graph);
+
+		for(Node n : graph.getNodes()) {
+			xml.startElement("node");
+			xml.attribute("id", n.getId());
+			data(xml, nodeKeys, n);
+			xml.endElement();
+		}
+
+		for(Edge e : graph.getEdges()) {
+			xml.startElement("edge");
+			xml.attribute("id", e.getId());
+			xml.attribute("source", e.getSrc().getId());
+			xml.attribute("target", e.getTgt().getId());
+			data(xml, edgeKeys, e);
+			xml.endElement();
+		}
+		xml.endElement();
+		xml.endElement();
+		xml.endDocument();
+	}
+
+	/**
+	 * The keys of the graph, node or edge attributes by attribute name,
+	 * a key is numeric if all values of the attribute are numbers.
+	 */
+	private static class Keys {
+		String prefix;
+		Map<String, String> ids = new LinkedHashMap<String, String>();
+		Set<String> notNumeric = new HashSet<String>();
+
+		Keys(String prefix) {
+			this.prefix = prefix;
+		}
+
+		String get(String name) {
+			return ids.get(name);
+		}
+
+		void add(String name, Object value) {
+			if(!ids.containsKey(name)) ids.put(name, prefix + ids.size());
+			if(!(value instanceof Number)) notNumeric.add(name);
+		}
+
+		void add(AttributeHolder holder) {
+			for(String a : holder.getAttributeNames()) {
+				Object value = holder.getAttribute(a);
+				if(value != null) add(a, value);
+			}
+		}
+
+		void declare(PrettyXMLWriter xml, String domain) throws IOException {
+			for(Map.Entry<String, String> k : ids.entrySet()) {
+				xml.startElement("key");
+				xml.attribute("id", k.getValue());
+				xml.attribute("for", domain);
+				xml.attribute("attr.name", k.getKey());
+				xml.attribute("attr.type", notNumeric.contains(k.getKey()) ? "string" : "double");
+				xml.endElement();
+			}
+		}
+	}
+
+	private static void data(PrettyXMLWriter xml, Keys keys, AttributeHolder holder) throws IOException {
+		for(String a : holder.getAttributeNames()) {
+			Object value = holder.getAttribute(a);
+			if(value == null) continue;
+			data(xml, keys.get(a), value instanceof ValueList ? ((ValueList)value).join(LIST_SEPARATOR) : value.toString());
+		}
+	}
+
+	private static void data(PrettyXMLWriter xml, String key, String value) throws IOException {
+		xml.startElement("data");
+		xml.attribute("key", key);
+		xml.text(value);
+		xml.endElement();
+	}
+}
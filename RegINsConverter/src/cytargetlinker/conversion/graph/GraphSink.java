@@ -0,0 +1,39 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+
+/**
+ * Receives the nodes and edges of a network while a converter 
+ * produces them. {@link Graph} and {@link ColumnarGraph} collect 
+ * everything in memory, {@link XGMMLSink} writes it out directly.
+ * @author Thomas
+ *
+ */
+public interface GraphSink {
+	
+	/**
+	 * sets the title and graph attributes, has to be 
+	 * called before the first node or edge
+	 */
+	public void graph(String title, AttributeHolder attributes) throws IOException;
+	
+	/**
+	 * adds a node, if a node with the same id already exists
+	 * the attributes are appended to it (if the sink supports it) 
+	 */
+	public void node(String id, AttributeHolder attributes) throws IOException;
+	
+	/**
+	 * adds an edge between two nodes, if an edge between the same nodes 
+	 * already exists the attributes are appended to it (if the sink supports it)
+	 * @param id null for the id source-target, which is only built when
+	 * the edge is written
+	 */
+	public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException;
+	
+	public int getNodeCount();
+	
+	public int getEdgeCount();
+	
+	public void close() throws IOException;
+}
@@ -0,0 +1,89 @@
+package cytargetlinker.conversion.graph;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to non-negative int values,
+ * without boxing. The sinks use it to find edges by the packed
+ * indices of their source and target node, see {@link #key(int, int)}.
+ * @author Thomas
+ *
+ */
+final class LongIntMap {
+	private final static int EMPTY = -1;
+
+	private long [] keys;
+	private int [] values;
+	private int size = 0;
+	private int mask;
+
+	LongIntMap() {
+		this(1024);
+	}
+
+	LongIntMap(int capacity) {
+		int n = Integer.highestOneBit(Math.max(4, capacity) * 2 - 1);
+		keys = new long[n];
+		values = new int[n];
+		Arrays.fill(values, EMPTY);
+		mask = n - 1;
+	}
+
+	/**
+	 * @return the key of an edge from the source to the target node index
+	 */
+	static long key(int src, int tgt) {
+		return ((long)src << 32) | (tgt & 0xffffffffL);
+	}
+
+	/**
+	 * @return the value of the key or -1 if the key isn't in the map
+	 */
+	int get(long key) {
+		for(int i = slot(key); ; i = (i + 1) & mask) {
+			if(values[i] == EMPTY || keys[i] == key) return values[i];
+		}
+	}
+
+	/**
+	 * adds the key with the value if it isn't in the map yet
+	 * @return the value of the key before or -1 if the key was added
+	 */
+	int putIfAbsent(long key, int value) {
+		int i = slot(key);
+		for(; values[i] != EMPTY; i = (i + 1) & mask) {
+			if(keys[i] == key) return values[i];
+		}
+		keys[i] = key;
+		values[i] = value;
+		// at most half of the slots are used, so probe sequences stay short
+		if(++size * 2 > keys.length) grow();
+		return EMPTY;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private int slot(long key) {
+		// the node indices are dense, mix them before the low bits are used
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & mask;
+	}
+
+	private void grow() {
+		long [] oldKeys = keys;
+		int [] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(values, EMPTY);
+		mask = keys.length - 1;
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldValues[j] == EMPTY) continue;
+			int i = slot(oldKeys[j]);
+			while(values[i] != EMPTY) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom.IllegalDataException;
+import org.jdom.Verifier;
+
+/**
+ * Minimal streaming XML printer that produces the same bytes as
+ * JDOM's XMLOutputter with Format.getPrettyFormat() for documents
+ * consisting only of elements and attributes, without building a tree.
+ * @author Thomas
+ *
+ */
+class PrettyXMLWriter {
+	final static String LINE_SEPARATOR = "\r\n";
+	final static String INDENT = "  ";
+
+	private Writer out;
+	private List<String> open = new ArrayList<String>();
+	private boolean startTagOpen = false;
+	private boolean text = false;
+
+	public PrettyXMLWriter(Writer out) {
+		this.out = out;
+	}
+	
+	/**
+	 * Creates a writer for a fragment that will later be 
+	 * inserted at the given depth of another document.
+	 */
+	public PrettyXMLWriter(Writer out, int depth) {
+		this.out = out;
+		for(int i = 0; i < depth; i++) {
+			open.add(null);
+		}
+	}
+
+	public void startDocument() throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		out.write(LINE_SEPARATOR);
+	}
+
+	public void endDocument() throws IOException {
+		out.write(LINE_SEPARATOR);
+		out.write(LINE_SEPARATOR);
+		out.flush();
+	}
+
+	public void startElement(String name) throws IOException {
+		if(startTagOpen) {
+			out.write(">");
+		}
+		if(open.size() > 0) {
+			newLine(open.size());
+		}
+		out.write("<");
+		out.write(name);
+		open.add(name);
+		startTagOpen = true;
+	}
+
+	public void attribute(String name, String value) throws IOException {
+		String reason = Verifier.checkCharacterData(value);
+		if(reason != null) {
+			throw new IllegalDataException("The data \"" + value + "\" is not legal for a JDOM attribute: " + reason + ".");
+		}
+		out.write(" ");
+		out.write(name);
+		out.write("=\"");
+		escape(value);
+		out.write("\"");
+	}
+
+	/**
+	 * Writes the text content of the current element, the element
+	 * must not have child elements.
+	 */
+	public void text(String value) throws IOException {
+		String reason = Verifier.checkCharacterData(value);
+		if(reason != null) {
+			throw new IllegalDataException("The data \"" + value + "\" is not legal for a JDOM content: " + reason + ".");
+		}
+		if(startTagOpen) {
+			out.write(">");
+			startTagOpen = false;
+		}
+		escapeText(value);
+		text = true;
+	}
+
+	public void endElement() throws IOException {
+		String name = open.remove(open.size() - 1);
+		if(text) {
+			out.write("</");
+			out.write(name);
+			out.write(">");
+			text = false;
+		} else if(startTagOpen) {
+			out.write(" />");
+			startTagOpen = false;
+		} else {
+			newLine(open.size());
+			out.write("</");
+			out.write(name);
+			out.write(">");
+		}
+	}
+
+	/**
+	 * Inserts an already serialized fragment (see {@link #PrettyXMLWriter(Writer, int)})
+	 * as content of the current element.
+	 */
+	public void raw(char [] buf, int off, int len) throws IOException {
+		if(startTagOpen) {
+			out.write(">");
+			startTagOpen = false;
+		}
+		out.write(buf, off, len);
+	}
+
+	public void raw(String fragment) throws IOException {
+		if(startTagOpen) {
+			out.write(">");
+			startTagOpen = false;
+		}
+		out.write(fragment);
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private void newLine(int depth) throws IOException {
+		out.write(LINE_SEPARATOR);
+		for(int i = 0; i < depth; i++) {
+			out.write(INDENT);
+		}
+	}
+
+	// same entities as XMLOutputter.escapeElementEntities for UTF-8
+	private void escapeText(String value) throws IOException {
+		int len = value.length();
+		int start = 0;
+		for(int i = 0; i < len; i++) {
+			char ch = value.charAt(i);
+			String entity;
+			switch(ch) {
+			case '<': entity = "&lt;"; break;
+			case '>': entity = "&gt;"; break;
+			case '&': entity = "&amp;"; break;
+			case '\r': entity = "&#xD;"; break;
+			default:
+				continue;
+			}
+			out.write(value, start, i - start);
+			out.write(entity);
+			start = i + 1;
+		}
+		out.write(value, start, len - start);
+	}
+
+	// same entities as XMLOutputter.escapeAttributeEntities for UTF-8
+	private void escape(String value) throws IOException {
+		int len = value.length();
+		int start = 0;
+		for(int i = 0; i < len; i++) {
+			char ch = value.charAt(i);
+			String entity;
+			switch(ch) {
+			case '<': entity = "&lt;"; break;
+			case '>': entity = "&gt;"; break;
+			case '"': entity = "&quot;"; break;
+			case '&': entity = "&amp;"; break;
+			case '\r': entity = "&#xD;"; break;
+			case '\t': entity = "&#x9;"; break;
+			case '\n': entity = "&#xA;"; break;
+			default:
+				if(Character.isHighSurrogate(ch) && i + 1 < len) {
+					int cp = Character.toCodePoint(ch, value.charAt(i + 1));
+					out.write(value, start, i - start);
+					out.write("&#x" + Integer.toHexString(cp) + ";");
+					i++;
+					start = i + 1;
+				}
+				continue;
+			}
+			out.write(value, start, i - start);
+			out.write(entity);
+			start = i + 1;
+		}
+		out.write(value, start, len - start);
+	}
+}
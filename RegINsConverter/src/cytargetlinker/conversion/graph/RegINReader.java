@@ -0,0 +1,182 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import cytargetlinker.conversion.utils.Compression;
+
+/**
+ * Reads a binary RegIN file written by {@link RegINWriter}. The whole
+ * file is read into arrays (strings, node ids, edge arrays and one
+ * attribute holder per node and edge) before the network is added to
+ * a {@link GraphSink}, nodes and edges in the order of the file.
+ * @author Thomas
+ *
+ */
+public class RegINReader {
+	private DataInputStream in;
+	private String [] strings;
+
+	private String title;
+	private AttributeHolder graphAttributes;
+	private String [] nodeIds;
+	private AttributeHolder [] nodes;
+	private String [] edgeIds;
+	private int [] src;
+	private int [] tgt;
+	private AttributeHolder [] edges;
+
+	/**
+	 * reads the network from the stream, the stream is not closed
+	 */
+	public RegINReader(InputStream in) throws IOException {
+		this.in = new DataInputStream(in);
+		read();
+		this.in = null;
+	}
+
+	/**
+	 * reads the file, decompressed if it is compressed
+	 */
+	public static RegINReader open(File file) throws IOException {
+		InputStream in = Compression.open(file);
+		try {
+			return new RegINReader(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public String getTitle() { return title; }
+	public int getNodeCount() { return nodeIds.length; }
+	public int getEdgeCount() { return edgeIds.length; }
+
+	/**
+	 * adds the graph attributes, the nodes and the edges to the sink,
+	 * the sink is not closed
+	 */
+	public void copyTo(GraphSink sink) throws IOException {
+		sink.graph(title, graphAttributes);
+		for(int n = 0; n < nodeIds.length; n++) {
+			sink.node(nodeIds[n], nodes[n]);
+		}
+		for(int e = 0; e < edgeIds.length; e++) {
+			sink.edge(edgeIds[e], nodeIds[src[e]], nodeIds[tgt[e]], edges[e]);
+		}
+	}
+
+	/**
+	 * @return a {@link Graph} with the network of the file
+	 */
+	public Graph toGraph() throws IOException {
+		Graph g = new Graph();
+		copyTo(g);
+		return g;
+	}
+
+	private void read() throws IOException {
+		byte [] magic = new byte[RegINWriter.MAGIC.length];
+		in.readFully(magic);
+		for(int i = 0; i < magic.length; i++) {
+			if(magic[i] != RegINWriter.MAGIC[i]) throw new IOException("Not a binary RegIN file");
+		}
+		int version = varint();
+		if(version != RegINWriter.VERSION) {
+			throw new IOException("Unsupported RegIN version " + version + ", expected " + RegINWriter.VERSION);
+		}
+		strings = new String[varint()];
+		byte [] buf = new byte[256];
+		for(int i = 0; i < strings.length; i++) {
+			int len = varint();
+			if(len > buf.length) buf = new byte[Math.max(len, buf.length * 2)];
+			in.readFully(buf, 0, len);
+			strings[i] = new String(buf, 0, len, "UTF-8");
+		}
+
+		title = string();
+		AttributeHolder [] graph = { new AttributeHolder() };
+		columns(graph);
+		graphAttributes = graph[0];
+
+		nodeIds = new String[varint()];
+		for(int i = 0; i < nodeIds.length; i++) nodeIds[i] = string();
+
+		edgeIds = new String[varint()];
+		src = new int[edgeIds.length];
+		tgt = new int[edgeIds.length];
+		for(int i = 0; i < edgeIds.length; i++) edgeIds[i] = string();
+		for(int i = 0; i < src.length; i++) src[i] = node();
+		for(int i = 0; i < tgt.length; i++) tgt[i] = node();
+
+		nodes = holders(nodeIds.length);
+		columns(nodes);
+		edges = holders(edgeIds.length);
+		columns(edges);
+	}
+
+	private static AttributeHolder [] holders(int count) {
+		AttributeHolder [] holders = new AttributeHolder[count];
+		for(int i = 0; i < count; i++) holders[i] = new AttributeHolder();
+		return holders;
+	}
+
+	private void columns(AttributeHolder [] elements) throws IOException {
+		int columns = varint();
+		for(int c = 0; c < columns; c++) {
+			String name = string();
+			int type = in.readUnsignedByte();
+			int count = varint();
+			int i = -1;
+			for(int v = 0; v < count; v++) {
+				i += varint();
+				if(i >= elements.length) throw new IOException("Attribute " + name + " of element " + i + " out of range");
+				elements[i].attributes.put(name, value(type == RegINWriter.MIXED ? in.readUnsignedByte() : type));
+			}
+		}
+	}
+
+	private Object value(int type) throws IOException {
+		switch(type) {
+		case RegINWriter.STRING:
+			return string();
+		case RegINWriter.REAL:
+			return in.readDouble();
+		case RegINWriter.LIST:
+			ValueList list = new ValueList();
+			for(int n = varint(); n > 0; n--) list.add(string());
+			return list;
+		case RegINWriter.SET:
+			ValueSet set = new ValueSet(string());
+			for(int n = varint(); n > 0; n--) set.add(string());
+			return set;
+		default:
+			throw new IOException("Unknown attribute type " + type);
+		}
+	}
+
+	private String string() throws IOException {
+		int i = varint();
+		if(i >= strings.length) throw new IOException("String " + i + " out of range");
+		return strings[i];
+	}
+
+	private int node() throws IOException {
+		int i = varint();
+		if(i >= nodeIds.length) throw new IOException("Node " + i + " out of range");
+		return i;
+	}
+
+	private int varint() throws IOException {
+		int v = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			int b = in.read();
+			if(b == -1) throw new EOFException("Unexpected end of RegIN file");
+			v |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0) return v;
+		}
+		throw new IOException("Malformed varint");
+	}
+}
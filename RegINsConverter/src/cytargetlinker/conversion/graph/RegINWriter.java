@@ -0,0 +1,276 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.utils.Compression;
+
+/**
+ * Writes a network as binary RegIN, a compact alternative to xgmml
+ * that can be loaded without parsing xml (see {@link RegINReader}).
+ *
+ * The file contains:
+ * <ul>
+ * <li>the magic bytes RGIN and the format version</li>
+ * <li>a string table with every distinct string (ids, attribute names
+ * and values), all other strings are indices into this table</li>
+ * <li>the title and the graph attributes</li>
+ * <li>the node table (node ids)</li>
+ * <li>the edge arrays: ids, source nodes and target nodes</li>
+ * <li>the node and the edge attributes, one column per attribute name</li>
+ * </ul>
+ * A column has a type (string, real, list or set) and contains the
+ * elements that have a value, sparse columns (e.g. attributes of only
+ * the source nodes) stay small. A column with values of different types
+ * stores the type of every value. Integers are written as varints,
+ * numbers are read back as Double.
+ * @author Thomas
+ *
+ */
+public class RegINWriter {
+	public final static String EXTENSION = ".regin";
+
+	final static byte [] MAGIC = { 'R', 'G', 'I', 'N' };
+	final static int VERSION = 1;
+
+	final static int STRING = 1;
+	final static int REAL = 2;
+	final static int LIST = 3;
+	final static int SET = 4;
+	final static int MIXED = 0xff;
+
+	/**
+	 * @return true if the file is a binary RegIN file (.regin or .regin.gz)
+	 */
+	public static boolean isRegIN(File file) {
+		String name = file.getName();
+		if(name.endsWith(Compression.GZIP_EXTENSION)) {
+			name = name.substring(0, name.length() - Compression.GZIP_EXTENSION.length());
+		}
+		return name.endsWith(EXTENSION);
+	}
+
+	/**
+	 * nodes and edges are written in the order of {@link Graph#getNodes()}
+	 * and {@link Graph#getEdges()}, the stream is not closed
+	 */
+	public static void write(Graph graph, OutputStream out) throws IOException {
+		List<Node> nodes = new ArrayList<Node>(graph.getNodes());
+		List<Edge> edges = new ArrayList<Edge>(graph.getEdges());
+		Map<Node, Integer> index = new IdentityHashMap<Node, Integer>();
+		String [] nodeIds = new String[nodes.size()];
+		for(int i = 0; i < nodeIds.length; i++) {
+			nodeIds[i] = nodes.get(i).getId();
+			index.put(nodes.get(i), i);
+		}
+		String [] edgeIds = new String[edges.size()];
+		int [] src = new int[edgeIds.length];
+		int [] tgt = new int[edgeIds.length];
+		for(int i = 0; i < edgeIds.length; i++) {
+			Edge e = edges.get(i);
+			edgeIds[i] = e.getId();
+			src[i] = index.get(e.getSrc());
+			tgt[i] = index.get(e.getTgt());
+		}
+		new RegINWriter().write(graph.getTitle(), graph, nodeIds, edgeIds, src, tgt,
+				new Holders(nodes), new Holders(edges), out);
+	}
+
+	/**
+	 * nodes and edges are written in the order they were added,
+	 * the stream is not closed
+	 */
+	public static void write(final ColumnarGraph graph, OutputStream out) throws IOException {
+		String [] nodeIds = new String[graph.getNodeCount()];
+		for(int i = 0; i < nodeIds.length; i++) {
+			nodeIds[i] = graph.getNodeId(i);
+		}
+		String [] edgeIds = new String[graph.getEdgeCount()];
+		int [] src = new int[edgeIds.length];
+		int [] tgt = new int[edgeIds.length];
+		for(int i = 0; i < edgeIds.length; i++) {
+			edgeIds[i] = graph.getEdgeId(i);
+			src[i] = graph.getSource(i);
+			tgt[i] = graph.getTarget(i);
+		}
+		Elements nodes = new Elements() {
+			public int size() { return graph.getNodeCount(); }
+			public Collection<String> names() { return graph.getNodeAttributeNames(); }
+			public Object get(int i, String name) { return graph.getNodeAttribute(i, name); }
+		};
+		Elements edges = new Elements() {
+			public int size() { return graph.getEdgeCount(); }
+			public Collection<String> names() { return graph.getEdgeAttributeNames(); }
+			public Object get(int i, String name) { return graph.getEdgeAttribute(i, name); }
+		};
+		new RegINWriter().write(graph.getTitle(), graph.getAttributes(), nodeIds, edgeIds, src, tgt, nodes, edges, out);
+	}
+
+	/**
+	 * The attributes of the nodes or edges, by index.
+	 */
+	private interface Elements {
+		int size();
+		Collection<String> names();
+		Object get(int i, String name);
+	}
+
+	private static class Holders implements Elements {
+		List<? extends AttributeHolder> holders;
+		Set<String> names = new LinkedHashSet<String>();
+
+		Holders(List<? extends AttributeHolder> holders) {
+			this.holders = holders;
+			for(AttributeHolder h : holders) {
+				names.addAll(h.getAttributeNames());
+			}
+		}
+
+		public int size() { return holders.size(); }
+		public Collection<String> names() { return names; }
+
+		public Object get(int i, String name) { return holders.get(i).getAttribute(name); }
+	}
+
+	private Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+	private DataOutputStream out;
+
+	private void write(String title, AttributeHolder graphAttributes, String [] nodeIds, String [] edgeIds,
+			int [] src, int [] tgt, Elements nodes, Elements edges, OutputStream os) throws IOException {
+		Elements graph = new Holders(Collections.singletonList(graphAttributes));
+
+		// the string table comes first, so all strings are collected before anything is written
+		string(title);
+		for(String id : nodeIds) string(id);
+		for(String id : edgeIds) string(id);
+		collect(graph);
+		collect(nodes);
+		collect(edges);
+
+		out = new DataOutputStream(os);
+		out.write(MAGIC);
+		varint(VERSION);
+		varint(strings.size());
+		for(String s : strings.keySet()) {
+			byte [] utf8 = s.getBytes("UTF-8");
+			varint(utf8.length);
+			out.write(utf8);
+		}
+
+		varint(string(title));
+		columns(graph);
+
+		varint(nodeIds.length);
+		for(String id : nodeIds) varint(string(id));
+
+		varint(edgeIds.length);
+		for(String id : edgeIds) varint(string(id));
+		for(int s : src) varint(s);
+		for(int t : tgt) varint(t);
+
+		columns(nodes);
+		columns(edges);
+		out.flush();
+	}
+
+	private int string(String s) {
+		Integer i = strings.get(s);
+		if(i == null) {
+			i = strings.size();
+			strings.put(s, i);
+		}
+		return i;
+	}
+
+	private void collect(Elements elements) {
+		for(String name : elements.names()) {
+			string(name);
+			for(int i = 0; i < elements.size(); i++) {
+				Object value = elements.get(i, name);
+				if(value instanceof ValueList) {
+					for(String v : ((ValueList)value).getValues()) string(v);
+				} else if(value instanceof ValueSet) {
+					string(((ValueSet)value).getSeparator());
+					for(String v : ((ValueSet)value).getValues()) string(v);
+				} else if(value != null && !(value instanceof Number)) {
+					string(value.toString());
+				}
+			}
+		}
+	}
+
+	private void columns(Elements elements) throws IOException {
+		Collection<String> names = elements.names();
+		varint(names.size());
+		for(String name : names) {
+			int type = 0;
+			int count = 0;
+			for(int i = 0; i < elements.size(); i++) {
+				Object value = elements.get(i, name);
+				if(value == null) continue;
+				count++;
+				int t = type(value);
+				type = type == 0 || type == t ? t : MIXED;
+			}
+			varint(string(name));
+			out.writeByte(type);
+			varint(count);
+			// elements with a value as the distance to the previous one
+			int last = -1;
+			for(int i = 0; i < elements.size(); i++) {
+				Object value = elements.get(i, name);
+				if(value == null) continue;
+				varint(i - last);
+				last = i;
+				if(type == MIXED) out.writeByte(type(value));
+				value(value);
+			}
+		}
+	}
+
+	private static int type(Object value) {
+		if(value instanceof Number) return REAL;
+		if(value instanceof ValueList) return LIST;
+		if(value instanceof ValueSet) return SET;
+		return STRING;
+	}
+
+	private void value(Object value) throws IOException {
+		if(value instanceof Number) {
+			out.writeDouble(((Number)value).doubleValue());
+		} else if(value instanceof ValueList) {
+			List<String> values = ((ValueList)value).getValues();
+			varint(values.size());
+			for(String v : values) varint(string(v));
+		} else if(value instanceof ValueSet) {
+			ValueSet set = (ValueSet)value;
+			varint(string(set.getSeparator()));
+			varint(set.size());
+			for(String v : set.getValues()) varint(string(v));
+		} else {
+			varint(string(value.toString()));
+		}
+	}
+
+	// unsigned LEB128, 7 bits per byte
+	private void varint(int v) throws IOException {
+		while((v & ~0x7f) != 0) {
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+}
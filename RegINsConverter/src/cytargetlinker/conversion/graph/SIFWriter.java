@@ -0,0 +1,49 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes a graph in the simple interaction format (SIF) of Cytoscape:
+ * one line "source interaction target" per edge, separated by tabs,
+ * and one line with only the id for every node without edges. Only
+ * the ids are written, no attributes. The interaction is the interaction
+ * (or interactionType) attribute of the edge.
+ * @author Thomas
+ *
+ */
+public class SIFWriter {
+	final static String DEFAULT_INTERACTION = "interacts";
+
+	public static void write(Graph graph, Writer out) throws IOException {
+		Map<Node, Boolean> connected = new IdentityHashMap<Node, Boolean>();
+		for(Edge e : graph.getEdges()) {
+			out.write(EdgeListWriter.clean(e.getSrc().getId()));
+			out.write('\t');
+			out.write(interaction(e));
+			out.write('\t');
+			out.write(EdgeListWriter.clean(e.getTgt().getId()));
+			out.write('\n');
+			connected.put(e.getSrc(), Boolean.TRUE);
+			connected.put(e.getTgt(), Boolean.TRUE);
+		}
+		for(Node n : graph.getNodes()) {
+			if(connected.containsKey(n)) continue;
+			out.write(EdgeListWriter.clean(n.getId()));
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	private static String interaction(Edge e) {
+		Object type = e.getAttribute("interaction");
+		if(type == null) type = e.getAttribute("interactionType");
+		if(type == null || "".equals(type.toString())) return DEFAULT_INTERACTION;
+		return EdgeListWriter.clean(type.toString());
+	}
+}
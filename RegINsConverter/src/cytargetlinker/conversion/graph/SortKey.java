@@ -0,0 +1,47 @@
+package cytargetlinker.conversion.graph;
+
+/**
+ * Position of a node or edge in sorted output: nodes are ordered by id,
+ * edges by id, source id and target id (ids of edges added with an
+ * explicit id don't have to be unique). Strings are compared by
+ * {@link String#compareTo(String)}, so the order is the same on every JVM.
+ * @author Thomas
+ *
+ */
+class SortKey<T> implements Comparable<SortKey<T>> {
+	final String id;
+	final String src;
+	final String tgt;
+	final T value;
+
+	SortKey(String id, T value) {
+		this(id, null, null, value);
+	}
+
+	SortKey(String id, String src, String tgt, T value) {
+		this.id = id;
+		this.src = src;
+		this.tgt = tgt;
+		this.value = value;
+	}
+
+	/**
+	 * @return an array for n keys, Java can't create generic arrays
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> SortKey<T> [] array(int n) {
+		return (SortKey<T> []) new SortKey<?>[n];
+	}
+
+	public int compareTo(SortKey<T> o) {
+		int c = id.compareTo(o.id);
+		if(c == 0) c = compare(src, o.src);
+		if(c == 0) c = compare(tgt, o.tgt);
+		return c;
+	}
+
+	private static int compare(String a, String b) {
+		if(a == null) return b == null ? 0 : -1;
+		return b == null ? 1 : a.compareTo(b);
+	}
+}
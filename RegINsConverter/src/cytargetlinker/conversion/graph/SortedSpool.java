@@ -0,0 +1,179 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import cytargetlinker.conversion.utils.ParallelSort;
+
+/**
+ * Serialized nodes or edges (xgmml fragments) that are written sorted
+ * by {@link SortKey}. The fragments are collected in memory, if they
+ * don't fit they are sorted and written to a temporary file (a run)
+ * and the runs are merged when the fragments are written. Both ways
+ * give the same output.
+ * @author Thomas
+ *
+ */
+class SortedSpool {
+	// part of the maximum heap the fragments in memory may use
+	private final static int MEMORY_FRACTION = 8;
+
+	private List<SortKey<String>> buffer = new ArrayList<SortKey<String>>();
+	private long bufferSize = 0;
+	private long maxBufferSize;
+	private List<File> runs = new ArrayList<File>();
+
+	SortedSpool() {
+		this(Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+	}
+
+	/**
+	 * @param maxBufferSize bytes (about 2 per character) of fragments
+	 * kept in memory before a run is written
+	 */
+	SortedSpool(long maxBufferSize) {
+		this.maxBufferSize = maxBufferSize;
+	}
+
+	void add(String id, String src, String tgt, String fragment) throws IOException {
+		buffer.add(new SortKey<String>(id, src, tgt, fragment));
+		bufferSize += 2 * (id.length() + fragment.length()) + 64;
+		if(bufferSize > maxBufferSize) spill();
+	}
+
+	/**
+	 * @return number of runs written to disk so far
+	 */
+	int getRunCount() {
+		return runs.size();
+	}
+
+	/**
+	 * appends the fragments in sorted order and deletes the runs
+	 */
+	void writeTo(XGMMLStreamWriter writer) throws IOException {
+		try {
+			if(runs.isEmpty()) {
+				for(SortKey<String> k : sort()) {
+					writer.append(k.value);
+				}
+				return;
+			}
+			spill();
+			PriorityQueue<Run> queue = new PriorityQueue<Run>();
+			try {
+				for(File f : runs) {
+					Run r = new Run(f);
+					if(r.next()) queue.add(r);
+					else r.close();
+				}
+				while(!queue.isEmpty()) {
+					Run r = queue.poll();
+					writer.append(r.current.value);
+					if(r.next()) queue.add(r);
+					else r.close();
+				}
+			} finally {
+				for(Run r : queue) r.close();
+			}
+		} finally {
+			delete();
+		}
+	}
+
+	/**
+	 * deletes the runs, e.g. when the conversion failed
+	 */
+	void delete() {
+		for(File f : runs) f.delete();
+		runs.clear();
+		buffer.clear();
+		bufferSize = 0;
+	}
+
+	private SortKey<String> [] sort() {
+		SortKey<String> [] keys = buffer.toArray(SortKey.<String>array(buffer.size()));
+		buffer.clear();
+		bufferSize = 0;
+		ParallelSort.sort(keys);
+		return keys;
+	}
+
+	private void spill() throws IOException {
+		if(buffer.isEmpty()) return;
+		File f = File.createTempFile("sorted", ".run");
+		f.deleteOnExit();
+		runs.add(f);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			for(SortKey<String> k : sort()) {
+				write(out, k.id);
+				write(out, k.src);
+				write(out, k.tgt);
+				write(out, k.value);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	// length (-1 for null) and UTF-8 bytes, writeUTF is limited to 64k
+	static void write(DataOutputStream out, String s) throws IOException {
+		if(s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte [] b = s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	static String read(DataInputStream in) throws IOException {
+		int len = in.readInt();
+		if(len < 0) return null;
+		byte [] b = new byte[len];
+		in.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+	/**
+	 * A run that is merged, ordered by its current fragment
+	 */
+	private static class Run implements Comparable<Run> {
+		DataInputStream in;
+		SortKey<String> current;
+
+		Run(File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		}
+
+		boolean next() throws IOException {
+			String id;
+			try {
+				id = read(in);
+			} catch (EOFException e) {
+				return false;
+			}
+			current = new SortKey<String>(id, read(in), read(in), read(in));
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+
+		public int compareTo(Run o) {
+			return current.compareTo(o.current);
+		}
+	}
+}
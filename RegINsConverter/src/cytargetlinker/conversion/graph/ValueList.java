@@ -0,0 +1,54 @@
+package cytargetlinker.conversion.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * List valued attribute, written as a xgmml attribute of type list
+ * with one nested attribute per value. Values may contain any 
+ * character, including brackets and commas.
+ * @author Thomas
+ *
+ */
+public class ValueList {
+	private List<String> values = new ArrayList<String>();
+	
+	public void add(String value) {
+		values.add(value);
+	}
+	
+	/**
+	 * adds the values of another list that are not in this list yet
+	 */
+	public void addAll(ValueList other) {
+		for(String v : other.values) {
+			if(!values.contains(v)) values.add(v);
+		}
+	}
+	
+	public List<String> getValues() {
+		return Collections.unmodifiableList(values);
+	}
+	
+	public int size() {
+		return values.size();
+	}
+	
+	/**
+	 * @return the values joined with the separator, for formats 
+	 * without list attributes
+	 */
+	public String join(String separator) {
+		StringBuilder str = new StringBuilder();
+		for(String v : values) {
+			if(str.length() > 0) str.append(separator);
+			str.append(v);
+		}
+		return str.toString();
+	}
+	
+	public String toString() {
+		return values.toString();
+	}
+}
@@ -0,0 +1,58 @@
+package cytargetlinker.conversion.graph;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Attribute value that collects several distinct values in the order 
+ * they were added. The values are only joined with the separator when 
+ * the attribute is written (see {@link #toString()}).
+ * @author Thomas
+ *
+ */
+public class ValueSet {
+	private Set<String> values = new LinkedHashSet<String>();
+	private String separator;
+	
+	public ValueSet(String separator) {
+		this.separator = separator;
+	}
+	
+	/**
+	 * adds a value, a value that contains the separator
+	 * is added as separate values
+	 */
+	public void add(String value) {
+		if(value.contains(separator)) {
+			for(String v : value.split(Pattern.quote(separator))) {
+				values.add(v);
+			}
+		} else {
+			values.add(value);
+		}
+	}
+	
+	public String getSeparator() {
+		return separator;
+	}
+	
+	public Collection<String> getValues() {
+		return Collections.unmodifiableCollection(values);
+	}
+	
+	public int size() {
+		return values.size();
+	}
+	
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for(String v : values) {
+			if(str.length() > 0) str.append(separator);
+			str.append(v);
+		}
+		return str.toString();
+	}
+}
@@ -0,0 +1,196 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import cytargetlinker.conversion.utils.Compression;
+
+/**
+ * Reads a XGMML file written by {@link XGMMLWriter} or {@link XGMMLSink}
+ * with StAX, every node and edge is added to a {@link GraphSink} as soon
+ * as it is read, so the file is never loaded completely. Written again
+ * the nodes and edges give the same xgmml: list attributes are read as
+ * {@link ValueList}, real attributes as numbers that are written with
+ * the text of the file, and the interaction attribute the writer adds
+ * to every edge is skipped.
+ * @author Thomas
+ *
+ */
+public class XGMMLReader {
+
+	private InputStream in;
+	private XMLStreamReader xml;
+
+	public XGMMLReader(InputStream in) throws IOException {
+		this.in = in;
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		try {
+			xml = factory.createXMLStreamReader(in);
+		} catch (XMLStreamException e) {
+			throw new IOException("Can not read xgmml file", e);
+		}
+	}
+
+	/**
+	 * opens the file, decompressed if it is compressed
+	 */
+	public static XGMMLReader open(File file) throws IOException {
+		return new XGMMLReader(Compression.open(file));
+	}
+
+	/**
+	 * adds the graph attributes, the nodes and the edges to the sink
+	 * in the order of the file, the sink is not closed
+	 */
+	public void copyTo(GraphSink sink) throws IOException {
+		try {
+			read(sink);
+		} catch (XMLStreamException e) {
+			throw new IOException("Invalid xgmml file", e);
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void read(GraphSink sink) throws XMLStreamException, IOException {
+		String title = "";
+		AttributeHolder graphAttributes = new AttributeHolder();
+		boolean started = false;
+		int depth = 0;
+
+		// the node or edge that is read
+		String element = null;
+		String id = null, src = null, tgt = null;
+		AttributeHolder attributes = null;
+		boolean interaction = false;
+
+		// the list attribute that is read
+		ValueList list = null;
+		int listDepth = 0;
+
+		while(xml.hasNext()) {
+			int event = xml.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				String name = xml.getLocalName();
+				if(depth == 1) {
+					String label = xml.getAttributeValue(null, "label");
+					if(label != null) title = label;
+				} else if(list != null && depth == listDepth + 1) {
+					list.add(value("value"));
+				} else if(name.equals("att")) {
+					if(depth == 2) {
+						list = attribute(graphAttributes);
+					} else if(depth == 3 && element != null) {
+						if(interaction) {
+							// written for every edge before its attributes
+							interaction = false;
+						} else {
+							list = attribute(attributes);
+						}
+					}
+					if(list != null) listDepth = depth;
+				} else if(depth == 2 && (name.equals("node") || name.equals("edge"))) {
+					if(!started) {
+						sink.graph(title, graphAttributes);
+						started = true;
+					}
+					element = name;
+					id = value("id");
+					src = xml.getAttributeValue(null, "source");
+					tgt = xml.getAttributeValue(null, "target");
+					attributes = new AttributeHolder();
+					interaction = name.equals("edge");
+				}
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				if(list != null && depth == listDepth) list = null;
+				if(depth == 2 && element != null) {
+					if(element.equals("node")) {
+						sink.node(id, attributes);
+					} else {
+						sink.edge(id, src, tgt, attributes);
+					}
+					element = null;
+				}
+				depth--;
+			}
+		}
+		if(!started) sink.graph(title, graphAttributes);
+	}
+
+	// reads the att element into the holder, returns the list of a list attribute
+	private ValueList attribute(AttributeHolder holder) {
+		String name = value("name");
+		String type = xml.getAttributeValue(null, "type");
+		if("list".equals(type)) {
+			ValueList list = new ValueList();
+			holder.attributes.put(name, list);
+			return list;
+		} else if("real".equals(type)) {
+			holder.setAttribute(name, new Real(value("value")));
+		} else {
+			holder.setAttribute(name, value("value"));
+		}
+		return null;
+	}
+
+	private String value(String attribute) {
+		String v = xml.getAttributeValue(null, attribute);
+		return v == null ? "" : v;
+	}
+
+	/**
+	 * Real attribute value that is written as it was read,
+	 * whatever number type it was written from
+	 */
+	static class Real extends Number {
+		private static final long serialVersionUID = 1L;
+
+		private final String text;
+
+		Real(String text) {
+			this.text = text;
+		}
+
+		public double doubleValue() {
+			try {
+				return Double.parseDouble(text);
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+
+		public float floatValue() { return (float)doubleValue(); }
+		public long longValue() { return (long)doubleValue(); }
+		public int intValue() { return (int)doubleValue(); }
+
+		public String toString() {
+			return text;
+		}
+
+		// equal if written the same, so the values can be dictionary encoded
+		public boolean equals(Object o) {
+			return o instanceof Real && ((Real)o).text.equals(text);
+		}
+
+		public int hashCode() {
+			return text.hashCode();
+		}
+	}
+}
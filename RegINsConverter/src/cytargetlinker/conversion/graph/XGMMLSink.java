@@ -0,0 +1,252 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import cytargetlinker.conversion.utils.Compression;
+
+/**
+ * Spools the nodes and edges to temporary files as they are added and
+ * writes the XGMML file when the sink is closed, nodes first. Only the
+ * node ids and the edge indices are kept in memory.
+ *
+ * Nodes and edges that are added more than once are merged like in
+ * {@link Graph} (see {@link AttributeHolder}), so all storages give the
+ * same network. The additions of these nodes and edges are merged in
+ * memory while the spool is read. Edges are identified by source and
+ * target, like the edge ids of all converters.
+ *
+ * With sorted output (see {@link XGMMLWriter#setSorted(boolean)}) nodes
+ * and edges are written sorted by id, runs are sorted on disk if they
+ * don't fit in memory.
+ * @author Thomas
+ *
+ */
+public class XGMMLSink implements GraphSink {
+	private Writer out;
+	private XGMMLStreamWriter writer;
+
+	private Additions nodeAdditions;
+	private Additions edgeAdditions;
+
+	// sorted output: the nodes and edges are serialized one by one
+	private SortedSpool sortedNodes;
+	private SortedSpool sortedEdges;
+	private StringWriter fragmentOut;
+	private XGMMLStreamWriter fragment;
+
+	private Map<String, Integer> nodes = new HashMap<String, Integer>();
+	private LongIntMap edges = new LongIntMap();
+	private boolean started = false;
+
+	/**
+	 * @param output gzip compressed if the name ends with .gz
+	 */
+	public XGMMLSink(File output) throws IOException {
+		this(new BufferedWriter(new OutputStreamWriter(Compression.create(output), "UTF-8")));
+	}
+
+	public XGMMLSink(Writer out) throws IOException {
+		this.out = out;
+		writer = new XGMMLStreamWriter(out);
+		nodeAdditions = new Additions("nodes");
+		edgeAdditions = new Additions("edges");
+		if(XGMMLWriter.isSorted()) {
+			writer.setSortAttributes(true);
+			sortedNodes = new SortedSpool();
+			sortedEdges = new SortedSpool();
+			fragmentOut = new StringWriter();
+			fragment = XGMMLStreamWriter.fragment(fragmentOut);
+			fragment.setSortAttributes(true);
+		}
+	}
+
+	public void graph(String title, AttributeHolder attributes) throws IOException {
+		if(started) {
+			throw new IllegalStateException("Graph attributes have to be set before the first node or edge.");
+		}
+		writer.startGraph(XGMMLWriter.graphId(title), title, attributes);
+		started = true;
+	}
+
+	public void node(String id, AttributeHolder attributes) throws IOException {
+		if(!started) graph("", new AttributeHolder());
+		Integer i = nodes.get(id);
+		if(i == null) {
+			i = nodes.size();
+			nodes.put(id, i);
+		}
+		nodeAdditions.add(i, id, null, null, attributes);
+	}
+
+	public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException {
+		int e = edges.putIfAbsent(LongIntMap.key(index(src), index(tgt)), edges.size());
+		if(e < 0) e = edges.size() - 1;
+		edgeAdditions.add(e, id, src, tgt, attributes);
+	}
+
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	public int getEdgeCount() {
+		return edges.size();
+	}
+
+	public void close() throws IOException {
+		finish();
+		out.close();
+	}
+
+	/**
+	 * writes the nodes and edges and the end of the graph
+	 * without closing the output
+	 */
+	void finish() throws IOException {
+		if(!started) graph("", new AttributeHolder());
+		try {
+			nodeAdditions.writeTo(false);
+			if(sortedNodes != null) sortedNodes.writeTo(writer);
+			edgeAdditions.writeTo(true);
+			if(sortedEdges != null) sortedEdges.writeTo(writer);
+		} finally {
+			nodeAdditions.delete();
+			edgeAdditions.delete();
+			if(sortedNodes != null) {
+				sortedNodes.delete();
+				sortedEdges.delete();
+			}
+		}
+		writer.endGraph();
+	}
+
+	private void write(boolean edge, String id, String src, String tgt, AttributeHolder attributes) throws IOException {
+		if(edge && id == null) id = Graph.edgeId(src, tgt);
+		if(sortedNodes == null) {
+			if(edge) writer.edge(id, src, tgt, attributes);
+			else writer.node(id, attributes);
+		} else if(edge) {
+			fragment.edge(id, src, tgt, attributes);
+			sortedEdges.add(id, src, tgt, takeFragment());
+		} else {
+			fragment.node(id, attributes);
+			sortedNodes.add(id, null, null, takeFragment());
+		}
+	}
+
+	private String takeFragment() {
+		String s = fragmentOut.toString();
+		fragmentOut.getBuffer().setLength(0);
+		return s;
+	}
+
+	// nodes only referenced by an edge are written without attributes
+	private int index(String id) throws IOException {
+		Integer i = nodes.get(id);
+		if(i == null) {
+			node(id, new AttributeHolder());
+			i = nodes.get(id);
+		}
+		return i;
+	}
+
+	/**
+	 * The additions of the nodes or edges in a temporary file, with the
+	 * number of additions per node or edge.
+	 */
+	private class Additions {
+		File file;
+		DataOutputStream spool;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream record = new DataOutputStream(buffer);
+		int [] counts = new int[1024];
+
+		Additions(String name) throws IOException {
+			file = File.createTempFile(name, ".spool");
+			file.deleteOnExit();
+			spool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		}
+
+		void add(int i, String id, String src, String tgt, AttributeHolder attributes) throws IOException {
+			buffer.reset();
+			SortedSpool.write(record, id);
+			SortedSpool.write(record, src);
+			SortedSpool.write(record, tgt);
+			attributes.write(record);
+			if(i >= counts.length) {
+				counts = Arrays.copyOf(counts, Math.max(i + 1, counts.length * 2));
+			}
+			counts[i]++;
+			spool.writeInt(i);
+			buffer.writeTo(spool);
+		}
+
+		// the additions in order, merged per node or edge (the first id wins)
+		void writeTo(boolean edge) throws IOException {
+			spool.close();
+			spool = null;
+			Map<Integer, Merged> merged = new HashMap<Integer, Merged>();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			try {
+				while(true) {
+					int i;
+					try {
+						i = in.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					String id = SortedSpool.read(in);
+					String src = SortedSpool.read(in);
+					String tgt = SortedSpool.read(in);
+					AttributeHolder attributes = AttributeHolder.read(in);
+					if(counts[i] > 1) {
+						Merged m = merged.get(i);
+						if(m == null) {
+							m = new Merged(id);
+							merged.put(i, m);
+						}
+						m.attributes.appendAttributes(attributes);
+						if(++m.count < counts[i]) continue;
+						merged.remove(i);
+						id = m.id;
+						attributes = m.attributes;
+					}
+					write(edge, id, src, tgt, attributes);
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		void delete() throws IOException {
+			if(spool != null) spool.close();
+			spool = null;
+			file.delete();
+		}
+	}
+
+	private static class Merged {
+		String id;
+		AttributeHolder attributes = new AttributeHolder();
+		int count = 0;
+
+		Merged(String id) {
+			this.id = id;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes XGMML element by element, so that nodes and edges
+ * can be emitted without building a JDOM document first.
+ * The output is identical to the DOM based {@link XGMMLWriter}.
+ * @author Thomas
+ *
+ */
+class XGMMLStreamWriter {
+	private PrettyXMLWriter xml;
+	private boolean sortAttributes = false;
+
+	public XGMMLStreamWriter(Writer out) {
+		xml = new PrettyXMLWriter(out);
+	}
+	
+	private XGMMLStreamWriter(PrettyXMLWriter xml) {
+		this.xml = xml;
+	}
+	
+	/**
+	 * Creates a writer for nodes and edges only, the result
+	 * can be added to a graph with {@link #append(Reader)}.
+	 */
+	public static XGMMLStreamWriter fragment(Writer out) {
+		return new XGMMLStreamWriter(new PrettyXMLWriter(out, 1));
+	}
+
+	/**
+	 * writes the attributes of the graph, nodes and edges sorted by name,
+	 * otherwise in the order of {@link AttributeHolder#getAttributeNames()}
+	 */
+	public void setSortAttributes(boolean sortAttributes) {
+		this.sortAttributes = sortAttributes;
+	}
+
+	public void startGraph(String id, String title, AttributeHolder attributes) throws IOException {
+		xml.startDocument();
+		xml.startElement("graph");
+		xml.attribute("xmlns", XGMMLWriter.NS);
+		xml.attribute("id", id);
+		xml.attribute("label", title);
+		printAttributes(attributes, true);
+	}
+
+	public void node(String id, AttributeHolder attributes) throws IOException {
+		startNode(id);
+		printAttributes(attributes, false);
+		endElement();
+	}
+
+	public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException {
+		startEdge(id, src, tgt, attributes.getAttribute("interaction"));
+		printAttributes(attributes, false);
+		endElement();
+	}
+
+	/**
+	 * starts a node, add the attributes with {@link #attribute(String, Object)}
+	 * and finish it with {@link #endElement()}
+	 */
+	public void startNode(String id) throws IOException {
+		startTopLevel("node");
+		xml.attribute("id", id);
+		xml.attribute("label", id);
+	}
+
+	/**
+	 * starts an edge, add the attributes with {@link #attribute(String, Object)}
+	 * and finish it with {@link #endElement()}
+	 */
+	public void startEdge(String id, String src, String tgt, Object interaction) throws IOException {
+		startTopLevel("edge");
+		xml.attribute("id", id);
+		xml.attribute("label", id);
+		xml.attribute("source", src);
+		xml.attribute("target", tgt);
+
+		xml.startElement("att");
+		xml.attribute("label", "interaction");
+		xml.attribute("name", "interaction");
+		xml.attribute("value", interaction == null ? "" : interaction.toString());
+		xml.attribute("type", "string");
+		xml.endElement();
+	}
+
+	public void attribute(String name, Object value) throws IOException {
+		if(value == null) return;
+		xml.startElement("att");
+		printAttribute(name, value);
+		xml.endElement();
+	}
+
+	public void endElement() throws IOException {
+		xml.endElement();
+	}
+
+	/**
+	 * Copies nodes or edges written by a {@link #fragment(Writer)} writer.
+	 */
+	public void append(Reader fragment) throws IOException {
+		char [] buf = new char[8192];
+		int len;
+		while((len = fragment.read(buf)) != -1) {
+			xml.raw(buf, 0, len);
+		}
+	}
+	
+	/**
+	 * Copies a node or edge written by a {@link #fragment(Writer)} writer.
+	 */
+	public void append(String fragment) throws IOException {
+		xml.raw(fragment);
+	}
+	
+	public void endGraph() throws IOException {
+		xml.endElement();
+		xml.endDocument();
+	}
+
+	// children of the root are not in the XGMML namespace
+	private void startTopLevel(String name) throws IOException {
+		xml.startElement(name);
+		xml.attribute("xmlns", "");
+	}
+
+	private void printAttributes(AttributeHolder attr, boolean topLevel) throws IOException {
+		for(String a : names(attr.getAttributeNames())) {
+			Object o = attr.getAttribute(a);
+			if(o == null) continue;
+
+			if(topLevel) startTopLevel("att");
+			else xml.startElement("att");
+			printAttribute(a, o);
+			xml.endElement();
+		}
+	}
+
+	/**
+	 * @return the names in the order they are written
+	 */
+	Collection<String> names(Collection<String> names) {
+		if(!sortAttributes) return names;
+		List<String> sorted = new ArrayList<String>(names);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	private void printAttribute(String a, Object o) throws IOException {
+		if(o instanceof ValueList) {
+			xml.attribute("type", "list");
+			xml.attribute("name", a);
+			for(String v : ((ValueList)o).getValues()) {
+				xml.startElement("att");
+				xml.attribute("type", "string");
+				xml.attribute("name", a);
+				xml.attribute("value", v);
+				xml.endElement();
+			}
+		} else {
+			xml.attribute("label", a);
+			xml.attribute("name", a);
+			xml.attribute("value", o.toString());
+			if(a.equals("context+ score") || a.equals("score") || a.equals("pvalue")) {
+				xml.attribute("type", "real");
+			} else {
+				xml.attribute("type", o instanceof Number ? "real" : "string");
+			}
+		}
+	}
+}
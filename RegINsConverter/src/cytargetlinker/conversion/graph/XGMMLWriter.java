@@ -1,8 +1,15 @@
 package cytargetlinker.conversion.graph;
 
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.zip.CRC32;
 
 import org.jdom.Document;
 import org.jdom.Element;
@@ -11,6 +18,9 @@ import org.jdom.output.XMLOutputter;
 
 import cytargetlinker.conversion.graph.Graph.Edge;
 import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.utils.ArgsParser;
+import cytargetlinker.conversion.utils.Compression;
+import cytargetlinker.conversion.utils.ParallelSort;
 
 /**
  * 
@@ -20,7 +30,257 @@ import cytargetlinker.conversion.graph.Graph.Node;
 public class XGMMLWriter {
 	final static String NS = "http://www.cs.rpi.edu/XGMML";
 	
+	/**
+	 * Set the system property cytargetlinker.xgmml.dom to true to 
+	 * build the output as a JDOM document (the old behaviour).
+	 */
+	private static boolean useDom = Boolean.getBoolean("cytargetlinker.xgmml.dom");
+	
+	/**
+	 * Set the system property cytargetlinker.xgmml.sorted to true (or call
+	 * {@link #setSorted(boolean)}) to write the nodes and edges sorted by id, 
+	 * see {@link #setSorted(boolean)}.
+	 */
+	private static volatile boolean sorted = Boolean.getBoolean("cytargetlinker.xgmml.sorted");
+	
+	/**
+	 * Sorted output is the same for the same network, whatever the storage 
+	 * or the order of the hash maps is: nodes are sorted by id, edges by id, 
+	 * source and target, attributes by name, and the graph id is derived 
+	 * from the title instead of the time. A {@link Graph} or {@link ColumnarGraph} 
+	 * is sorted in memory, an {@link XGMMLSink} sorts on disk if the network 
+	 * doesn't fit in memory. Sorted output is never built as JDOM document.
+	 */
+	public static void setSorted(boolean sorted) {
+		XGMMLWriter.sorted = sorted;
+	}
+	
+	public static boolean isSorted() {
+		return sorted;
+	}
+	
+	/**
+	 * @return the id of the graph element, the time or with
+	 * sorted output a checksum of the title
+	 */
+	static String graphId(String title) {
+		if(!sorted) return "" + System.currentTimeMillis();
+		CRC32 crc = new CRC32();
+		try {
+			crc.update(title.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return "" + crc.getValue();
+	}
+	
 	public static <N, E> void write(Graph graph, PrintWriter out) throws IOException {
+		write(graph, out, useDom && !sorted);
+	}
+	
+	/**
+	 * writes the graph as xgmml
+	 * @param dom if true a JDOM document of the whole graph is built 
+	 * before it is written, otherwise nodes and edges are streamed
+	 * directly to the output (same output, much less memory)
+	 */
+	public static void write(Graph graph, PrintWriter out, boolean dom) throws IOException {
+		if(dom) {
+			writeDocument(graph, out);
+		} else {
+			writeStream(graph, out);
+		}
+	}
+	
+	private static void writeStream(Graph graph, PrintWriter out) throws IOException {
+		XGMMLStreamWriter writer = new XGMMLStreamWriter(out);
+		writer.setSortAttributes(sorted);
+		writer.startGraph(graphId(graph.getTitle()), graph.getTitle(), graph);
+		
+		if(sorted) {
+			for(SortKey<Node> n : sort(graph.getNodes())) {
+				writer.node(n.id, n.value);
+			}
+			for(SortKey<Edge> e : sortEdges(graph.getEdges())) {
+				writer.edge(e.id, e.src, e.tgt, e.value);
+			}
+		} else {
+			for(Node n : graph.getNodes()) {
+				writer.node(n.getId(), n);
+			}
+			for(Edge edge : graph.getEdges()) {
+				writer.edge(edge.getId(), edge.getSrc().getId(), edge.getTgt().getId(), edge);
+			}
+		}
+		writer.endGraph();
+	}
+	
+	private static SortKey<Node> [] sort(Collection<Node> nodes) {
+		SortKey<Node> [] keys = SortKey.array(nodes.size());
+		int i = 0;
+		for(Node n : nodes) {
+			keys[i++] = new SortKey<Node>(n.getId(), n);
+		}
+		ParallelSort.sort(keys);
+		return keys;
+	}
+	
+	private static SortKey<Edge> [] sortEdges(Collection<Edge> edges) {
+		SortKey<Edge> [] keys = SortKey.array(edges.size());
+		int i = 0;
+		for(Edge e : edges) {
+			keys[i++] = new SortKey<Edge>(e.getId(), e.getSrc().getId(), e.getTgt().getId(), e);
+		}
+		ParallelSort.sort(keys);
+		return keys;
+	}
+	
+	/**
+	 * writes a {@link ColumnarGraph} as xgmml, nodes and edges are 
+	 * written in the order they were added (or sorted, see {@link #setSorted(boolean)})
+	 */
+	public static void write(ColumnarGraph graph, PrintWriter out) throws IOException {
+		XGMMLStreamWriter writer = new XGMMLStreamWriter(out);
+		writer.setSortAttributes(sorted);
+		writer.startGraph(graphId(graph.getTitle()), graph.getTitle(), graph.getAttributes());
+		
+		Collection<String> names = writer.names(graph.getNodeAttributeNames());
+		for(int n : order(graph, false)) {
+			writer.startNode(graph.getNodeId(n));
+			for(String a : names) {
+				writer.attribute(a, graph.getNodeAttribute(n, a));
+			}
+			writer.endElement();
+		}
+		
+		names = writer.names(graph.getEdgeAttributeNames());
+		for(int e : order(graph, true)) {
+			writer.startEdge(graph.getEdgeId(e), graph.getNodeId(graph.getSource(e)), 
+					graph.getNodeId(graph.getTarget(e)), graph.getEdgeAttribute(e, "interaction"));
+			for(String a : names) {
+				writer.attribute(a, graph.getEdgeAttribute(e, a));
+			}
+			writer.endElement();
+		}
+		writer.endGraph();
+	}
+	
+	// the node or edge indices in the order they are written
+	private static int [] order(ColumnarGraph graph, boolean edges) {
+		int n = edges ? graph.getEdgeCount() : graph.getNodeCount();
+		int [] order = new int[n];
+		if(!sorted) {
+			for(int i = 0; i < n; i++) order[i] = i;
+			return order;
+		}
+		SortKey<Integer> [] keys = SortKey.array(n);
+		for(int i = 0; i < n; i++) {
+			keys[i] = edges ? new SortKey<Integer>(graph.getEdgeId(i), graph.getNodeId(graph.getSource(i)), graph.getNodeId(graph.getTarget(i)), i)
+					: new SortKey<Integer>(graph.getNodeId(i), i);
+		}
+		ParallelSort.sort(keys);
+		for(int i = 0; i < n; i++) order[i] = keys[i].value;
+		return order;
+	}
+	
+	/**
+	 * writes the network of a binary RegIN file as xgmml, nodes and 
+	 * edges are written in the order of the file. Sorted output
+	 * (see {@link #setSorted(boolean)}) is sorted on disk if 
+	 * the network doesn't fit in memory.
+	 */
+	public static void write(RegINReader reader, PrintWriter out) throws IOException {
+		if(sorted) {
+			XGMMLSink sink = new XGMMLSink(out);
+			reader.copyTo(sink);
+			sink.finish();
+			return;
+		}
+		final XGMMLStreamWriter writer = new XGMMLStreamWriter(out);
+		reader.copyTo(new GraphSink() {
+			public void graph(String title, AttributeHolder attributes) throws IOException {
+				writer.startGraph(graphId(title), title, attributes);
+			}
+			public void node(String id, AttributeHolder attributes) throws IOException { writer.node(id, attributes); }
+			public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException { writer.edge(id, src, tgt, attributes); }
+			public int getNodeCount() { return 0; }
+			public int getEdgeCount() { return 0; }
+			public void close() {}
+		});
+		writer.endGraph();
+	}
+	
+	/**
+	 * How a network is kept until it is written.
+	 */
+	public enum Storage {
+		/** in memory in a {@link Graph} */
+		GRAPH,
+		/** in memory in a {@link ColumnarGraph}, for very large networks */
+		COLUMNAR,
+		/** written directly to the file with an {@link XGMMLSink} */
+		STREAM
+	}
+	
+	/**
+	 * @return a sink that writes the network to the output file as xgmml when it is closed,
+	 * the file is gzip compressed if its name ends with .gz. Files ending with .regin 
+	 * (or .regin.gz) are written as binary RegIN, this needs the whole network, 
+	 * so STREAM is kept in a {@link ColumnarGraph}. The other formats of 
+	 * {@link ArgsParser#getWriter(String)} (e.g. .sif) are written from a {@link Graph}.
+	 */
+	public static GraphSink open(File output, Storage storage) throws IOException {
+		String format = ArgsParser.getFormat(output);
+		if(format != null && !format.equals(ArgsParser.XGMML_FORMAT) && !RegINWriter.isRegIN(output)) {
+			storage = Storage.GRAPH;
+		} else if(RegINWriter.isRegIN(output) && storage == Storage.STREAM) {
+			storage = Storage.COLUMNAR;
+		}
+		switch(storage) {
+		case STREAM: return new XGMMLSink(output);
+		case COLUMNAR: return new WriteOnClose(new ColumnarGraph(), output);
+		default: return new WriteOnClose(new Graph(), output);
+		}
+	}
+	
+	private static class WriteOnClose implements GraphSink {
+		GraphSink graph;
+		File output;
+		
+		WriteOnClose(GraphSink graph, File output) {
+			this.graph = graph;
+			this.output = output;
+		}
+		
+		public void graph(String title, AttributeHolder attributes) throws IOException { graph.graph(title, attributes); }
+		public void node(String id, AttributeHolder attributes) throws IOException { graph.node(id, attributes); }
+		public void edge(String id, String src, String tgt, AttributeHolder attributes) throws IOException { graph.edge(id, src, tgt, attributes); }
+		public int getNodeCount() { return graph.getNodeCount(); }
+		public int getEdgeCount() { return graph.getEdgeCount(); }
+		
+		public void close() throws IOException {
+			graph.close();
+			if(graph instanceof Graph) {
+				try {
+					ArgsParser.write((Graph)graph, output);
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException("Unable to write " + output, e);
+				}
+			} else if(RegINWriter.isRegIN(output)) {
+				OutputStream out = Compression.create(output);
+				RegINWriter.write((ColumnarGraph)graph, out);
+				out.close();
+			} else {
+				PrintWriter po = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Compression.create(output), "UTF-8")));
+				write((ColumnarGraph)graph, po);
+				po.close();
+			}
+		}
+	}
+	
+	private static void writeDocument(Graph graph, PrintWriter out) throws IOException {
 		Document doc = new Document();
 
 		Element root = new Element("graph", NS);
@@ -82,19 +342,15 @@ public class XGMMLWriter {
 			Object o = attr.getAttribute(a);
 			if(o == null) continue;
 			
-			String type =  o instanceof Number ? "real" : "string";
-			
 			Element e = new Element("att");
-			if(o.toString().contains("[") && o.toString().contains("]")) {
-				type = "list";
+			if(o instanceof ValueList) {
 				e.setAttribute("type", "list");
 				e.setAttribute("name", a);
-				String [] str = ((String)o).replace("[", "").replace("]", "").split(",");
-				for(int i = 0; i < str.length; i++) {
+				for(String v : ((ValueList)o).getValues()) {
 					Element child = new Element("att");
 					child.setAttribute("type", "string");
 					child.setAttribute("name", a);
-					child.setAttribute("value", str[i].trim());
+					child.setAttribute("value", v);
 					e.addContent(child);
 				}
 			} else {
@@ -104,11 +360,11 @@ public class XGMMLWriter {
 				if(a.equals("context+ score") || a.equals("score") || a.equals("pvalue")) {
 					e.setAttribute("type", "real");
 				} else {
-					e.setAttribute("type", type);
+					e.setAttribute("type", o instanceof Number ? "real" : "string");
 				}
 			}
 
 			elm.addContent(e);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,14 +1,34 @@
 package cytargetlinker.conversion.utils;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperStack;
+
 import uk.co.flamingpenguin.jewel.cli.ArgumentValidationException;
 import uk.co.flamingpenguin.jewel.cli.CliFactory;
 import uk.co.flamingpenguin.jewel.cli.Option;
+import cytargetlinker.conversion.graph.EdgeListWriter;
 import cytargetlinker.conversion.graph.Graph;
+import cytargetlinker.conversion.graph.GraphMLWriter;
+import cytargetlinker.conversion.graph.RegINWriter;
+import cytargetlinker.conversion.graph.SIFWriter;
 import cytargetlinker.conversion.graph.XGMMLWriter;
 
 /**
@@ -17,6 +37,7 @@ import cytargetlinker.conversion.graph.XGMMLWriter;
  */
 public class ArgsParser {
 	private final static Logger log = Logger.getLogger(ArgsParser.class.getName());
+	private final static String PGDB = "idmapper-pgdb:";
 	
 	public static <A> A parse(String[] args, Class<? extends A> c) throws ArgumentValidationException {
 		return CliFactory.parseArguments(c, args);
@@ -37,6 +58,19 @@ public class ArgsParser {
 		@Option(shortName = "o", description = "The output GML file or directory to write the network(s) to.")
 		public File getOutput();
 		public boolean isOutput();
+		
+		@Option(longName = "gzip", description = "Compress the output (.xgmml.gz), output files ending with .gz are always compressed.")
+		public boolean isGzip();
+		
+		@Option(longName = "binary", description = "Write binary RegIN (.regin) instead of xgmml, output files ending with .regin are always binary.")
+		public boolean isBinary();
+		
+		@Option(longName = "format", description = "The output format(s): xgmml (default), regin, graphml, sif or tsv (edge list). With several formats one file per format is written, the output file is then used without its extension.")
+		public List<String> getFormat();
+		public boolean isFormat();
+		
+		@Option(longName = "sorted", description = "Write the nodes and edges of xgmml files sorted by id, the same input always gives the same file.")
+		public boolean isSorted();
 	}
 
 	public interface AFilesAttributes {
@@ -84,20 +118,151 @@ public class ArgsParser {
 		
 		@Option(defaultValue = { "L", "Ce" }, description = "The datasource(s) to translate all xrefs to (use system code).")
 		public List<String> getDs();
+		
+		@Option(longName = "idmPreload", description = "Load the mappings between these datasources (use system code) from the idmapper-pgdb databases into memory.")
+		public List<String> getIdmPreload();
+		public boolean isIdmPreload();
+	}
+	
+	/**
+	 * connects to the idmappers given with --idm, idmapper-pgdb databases
+	 * are loaded into memory if --idmPreload is used
+	 * @throws IllegalArgumentException if a datasource of --ds is not preloaded,
+	 * the preloaded mappers have no mappings to it
+	 */
+	public static IDMapper connect(AIDMapper a) throws Exception {
+		Class.forName("org.bridgedb.rdb.IDMapperRdb");
+		IDMapperStack stack = new IDMapperStack();
+		if(!a.isIdm()) return stack;
+		if(a.isIdmPreload() && !a.getIdmPreload().containsAll(a.getDs())) {
+			List<String> missing = new ArrayList<String>(a.getDs());
+			missing.removeAll(a.getIdmPreload());
+			throw new IllegalArgumentException("The datasource(s) " + missing + " of --ds are not preloaded, add them to --idmPreload " + a.getIdmPreload());
+		}
+		for(String c : a.getIdm()) {
+			if(a.isIdmPreload() && c.startsWith(PGDB)) {
+				List<DataSource> ds = new ArrayList<DataSource>();
+				for(String code : a.getIdmPreload()) {
+					ds.add(DataSource.getBySystemCode(code));
+				}
+				PreloadedIDMapper idm = PreloadedIDMapper.load(new File(c.substring(PGDB.length())), ds.toArray(new DataSource[ds.size()]));
+				log.info(idm.getReport());
+				stack.addIDMapper(idm);
+			} else {
+				stack.addIDMapper(c);
+			}
+		}
+		return stack;
 	}
 	
 	public interface GraphBuilder {
 		public Graph buildGraph(File in) throws Exception;
 	}
 	
-	private interface GraphWriter {
-		public void write(Graph g, PrintWriter out) throws Exception;
+	/**
+	 * Writes a graph in one output format, see {@link ArgsParser#register(String, GraphWriter)}.
+	 * A writer may be used by several threads at the same time.
+	 */
+	public interface GraphWriter {
+		/**
+		 * writes the graph, the stream is closed by the caller
+		 */
+		public void write(Graph g, OutputStream out) throws Exception;
+	}
+	
+	/**
+	 * Base class of writers of text formats, the output is UTF-8.
+	 */
+	public static abstract class TextWriter implements GraphWriter {
+		public void write(Graph g, OutputStream out) throws Exception {
+			PrintWriter po = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+			write(g, po);
+			po.flush();
+		}
+		
+		public abstract void write(Graph g, PrintWriter out) throws Exception;
 	}
 	
-	private static class XGMML implements GraphWriter {
+	private static class XGMML extends TextWriter {
 		public void write(Graph g, PrintWriter out) throws Exception { XGMMLWriter.write(g, out); }
 	}
 	
+	private static class RegIN implements GraphWriter {
+		public void write(Graph g, OutputStream out) throws Exception { RegINWriter.write(g, out); }
+	}
+	
+	private static class GraphML extends TextWriter {
+		public void write(Graph g, PrintWriter out) throws Exception { GraphMLWriter.write(g, out); }
+	}
+	
+	private static class SIF extends TextWriter {
+		public void write(Graph g, PrintWriter out) throws Exception { SIFWriter.write(g, out); }
+	}
+	
+	private static class EdgeList extends TextWriter {
+		public void write(Graph g, PrintWriter out) throws Exception { EdgeListWriter.write(g, out); }
+	}
+	
+	public final static String XGMML_FORMAT = "xgmml";
+	
+	// output formats by file extension (without the dot)
+	private final static Map<String, GraphWriter> writers = new LinkedHashMap<String, GraphWriter>();
+	static {
+		register(XGMML_FORMAT, new XGMML());
+		register(RegINWriter.EXTENSION.substring(1), new RegIN());
+		register("graphml", new GraphML());
+		register("sif", new SIF());
+		register("tsv", new EdgeList());
+	}
+	
+	/**
+	 * adds an output format, output files with the format as 
+	 * extension (e.g. test.sif for sif) are written by the writer
+	 */
+	public static synchronized void register(String format, GraphWriter writer) {
+		writers.put(format.toLowerCase(), writer);
+	}
+	
+	/**
+	 * @return the writer of the format or null if it is unknown
+	 */
+	public static synchronized GraphWriter getWriter(String format) {
+		return writers.get(format.toLowerCase());
+	}
+	
+	/**
+	 * @return the format of the file (its extension without .gz) 
+	 * or null if there is no writer for it
+	 */
+	public static String getFormat(File file) {
+		String name = file.getName();
+		if(name.endsWith(Compression.GZIP_EXTENSION)) {
+			name = name.substring(0, name.length() - Compression.GZIP_EXTENSION.length());
+		}
+		int dot = name.lastIndexOf('.');
+		if(dot == -1) return null;
+		String format = name.substring(dot + 1).toLowerCase();
+		return getWriter(format) == null ? null : format;
+	}
+	
+	/**
+	 * @return the output formats selected with --format (or --binary), 
+	 * xgmml by default
+	 * @throws IllegalArgumentException if a format is unknown
+	 */
+	public static List<String> formats(AFilesOut fo) {
+		List<String> formats = new ArrayList<String>();
+		if(fo.isFormat()) {
+			for(String f : fo.getFormat()) {
+				if(getWriter(f) == null) throw new IllegalArgumentException("Unknown output format " + f + ", use one of " + writers.keySet());
+				if(!formats.contains(f.toLowerCase())) formats.add(f.toLowerCase());
+			}
+		} else {
+			formats.add(fo.isBinary() ? RegINWriter.EXTENSION.substring(1) : XGMML_FORMAT);
+		}
+		return formats;
+	}
+	
 	/**
 	 * writes xgmml file
 	 * @param fi
@@ -106,13 +271,104 @@ public class ArgsParser {
 	 * @throws Exception
 	 */
 	public static void convertAndWrite(AFilesIn fi, AFilesOut fo, GraphBuilder gb) throws Exception {
-		GraphWriter writer = new XGMML();
 		File input = fi == null ? null : fi.getInput();
-		File output = fo.isOutput() ? fo.getOutput() : new File(fi.getInput().getAbsolutePath() + ".xgmml");
-		log.info("Converting " + input + " to " + output + "\n");
-		Graph g = gb.buildGraph(input);
-		PrintWriter po = new PrintWriter(output);
-		writer.write(g, po);
-		po.close();
-	}
-}
\ No newline at end of file
+		convertAndWrite(input, outputs(fi, fo), gb);
+	}
+	
+	/**
+	 * @return the output files, one per format. By default the input 
+	 * file with .xgmml appended (.regin with --binary, the formats 
+	 * given with --format), with --gzip .gz is appended. An output
+	 * file given with -o is used as is if there is only one format.
+	 */
+	public static List<File> outputs(AFilesIn fi, AFilesOut fo) {
+		List<String> formats = formats(fo);
+		if(fo.isOutput() && formats.size() == 1 && !fo.isFormat()) {
+			File output = fo.getOutput();
+			return Collections.singletonList(fo.isGzip() ? Compression.gzip(output) : output);
+		}
+		String base = fi.getInput().getAbsolutePath();
+		if(fo.isOutput()) {
+			base = fo.getOutput().getAbsolutePath();
+			if(base.endsWith(Compression.GZIP_EXTENSION)) {
+				base = base.substring(0, base.length() - Compression.GZIP_EXTENSION.length());
+			}
+			if(getFormat(fo.getOutput()) != null) {
+				base = base.substring(0, base.lastIndexOf('.'));
+			}
+		}
+		return outputs(base, fo);
+	}
+	
+	/**
+	 * @return the output files for the formats of fo, the format 
+	 * is appended to the base path (and .gz with --gzip)
+	 */
+	public static List<File> outputs(String base, AFilesOut fo) {
+		List<File> outputs = new ArrayList<File>();
+		for(String format : formats(fo)) {
+			File output = new File(base + "." + format);
+			outputs.add(fo.isGzip() ? Compression.gzip(output) : output);
+		}
+		return outputs;
+	}
+	
+	/**
+	 * writes the graph in the format of the output file (its extension, 
+	 * xgmml if it is unknown), gzip compressed (on a separate thread) if
+	 * the name of the output file ends with .gz
+	 */
+	public static void convertAndWrite(File input, File output, GraphBuilder gb) throws Exception {
+		convertAndWrite(input, Collections.singletonList(output), gb);
+	}
+	
+	/**
+	 * builds the graph once and writes it to all output files, in the format 
+	 * of each file. With several outputs the files are written in parallel, 
+	 * one thread per file, the graph isn't changed while it is written.
+	 */
+	public static void convertAndWrite(File input, List<File> outputs, GraphBuilder gb) throws Exception {
+		log.info("Converting " + input + " to " + outputs + "\n");
+		final Graph g = gb.buildGraph(input);
+		if(outputs.size() == 1) {
+			write(g, outputs.get(0));
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(outputs.size());
+		try {
+			List<Future<Void>> written = new ArrayList<Future<Void>>();
+			for(final File output : outputs) {
+				written.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						write(g, output);
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> f : written) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof Exception) throw (Exception)e.getCause();
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * writes the graph in the format of the output file (xgmml if it is unknown)
+	 */
+	public static void write(Graph g, File output) throws Exception {
+		String format = getFormat(output);
+		GraphWriter writer = getWriter(format == null ? XGMML_FORMAT : format);
+		OutputStream out = Compression.create(output);
+		try {
+			writer.write(g, out);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes to the wrapped stream on a background thread, so that slow
+ * streams (e.g. compression) run in parallel with the code producing the
+ * output. Data is handed over in buffers through a bounded queue, the
+ * buffers are reused. Errors of the wrapped stream are thrown by the next
+ * write or by {@link #close()}.
+ * @author Thomas
+ *
+ */
+public class AsyncOutputStream extends OutputStream {
+
+	private final static int BUFFER_SIZE = 1 << 16;
+	private final static int BUFFERS = 4;
+
+	private static class Buffer {
+		byte [] data = new byte[BUFFER_SIZE];
+		int length = 0;
+	}
+	private final static Buffer END = new Buffer();
+
+	private final OutputStream out;
+	private final BlockingQueue<Buffer> full = new ArrayBlockingQueue<Buffer>(BUFFERS + 1);
+	private final BlockingQueue<Buffer> free = new ArrayBlockingQueue<Buffer>(BUFFERS);
+	private final Thread thread;
+	private volatile IOException error;
+
+	private Buffer current = new Buffer();
+	private boolean closed = false;
+
+	/**
+	 * @param out the stream is written and closed by the background thread
+	 */
+	public AsyncOutputStream(OutputStream out) {
+		this.out = out;
+		for(int i = 1; i < BUFFERS; i++) {
+			free.add(new Buffer());
+		}
+		thread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "AsyncOutputStream");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void drain() {
+		try {
+			Buffer b;
+			while((b = full.take()) != END) {
+				// after an error the buffers are only recycled
+				if(error == null) {
+					try {
+						out.write(b.data, 0, b.length);
+					} catch (IOException e) {
+						error = e;
+					}
+				}
+				b.length = 0;
+				free.put(b);
+			}
+			out.close();
+		} catch (IOException e) {
+			if(error == null) error = e;
+		} catch (InterruptedException e) {
+			if(error == null) error = new InterruptedIOException("Interrupted while writing");
+		}
+	}
+
+	public void write(int b) throws IOException {
+		if(current.length == BUFFER_SIZE) handOver();
+		current.data[current.length++] = (byte)b;
+	}
+
+	public void write(byte [] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(current.length == BUFFER_SIZE) handOver();
+			int n = Math.min(len, BUFFER_SIZE - current.length);
+			System.arraycopy(b, off, current.data, current.length, n);
+			current.length += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * hands the buffered data to the background thread, the wrapped
+	 * stream is only flushed by {@link #close()}
+	 */
+	public void flush() throws IOException {
+		if(current.length > 0) handOver();
+	}
+
+	/**
+	 * waits until all data is written and the wrapped stream is closed,
+	 * the background thread is stopped also if writing failed
+	 */
+	public void close() throws IOException {
+		if(closed) return;
+		IOException failure = null;
+		try {
+			flush();
+		} catch (IOException e) {
+			failure = e;
+		}
+		closed = true;
+		// there are never more buffers than the queue can take, so END is not blocked
+		boolean interrupted = false;
+		while(true) {
+			try {
+				full.put(END);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		while(true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		if(failure != null) throw failure;
+		if(error != null) throw error;
+	}
+
+	private void handOver() throws IOException {
+		if(closed) throw new IOException("Stream is closed");
+		if(error != null) throw error;
+		try {
+			full.put(current);
+			current = free.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while writing");
+		}
+	}
+}
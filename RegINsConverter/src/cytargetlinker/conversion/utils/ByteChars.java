@@ -0,0 +1,56 @@
+package cytargetlinker.conversion.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * CharSequence view on UTF-8 bytes in a (memory mapped) buffer, so that
+ * lines can be tokenized without decoding them. charAt returns single
+ * bytes, which is correct for delimiters, quotes and ASCII text, and
+ * {@link #toString()} decodes the bytes. Comparing a view with non-ASCII
+ * text (e.g. {@link FieldTokenizer#equals(int, String)}) is not supported.
+ * @author Thomas
+ *
+ */
+public class ByteChars implements CharSequence {
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private ByteBuffer buffer;
+	private int offset;
+	private int length;
+
+	public ByteChars() {}
+
+	public ByteChars(ByteBuffer buffer, int offset, int length) {
+		set(buffer, offset, length);
+	}
+
+	/**
+	 * points the view to other bytes, so that one object can be used for all lines
+	 */
+	public void set(ByteBuffer buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public char charAt(int index) {
+		return (char)(buffer.get(offset + index) & 0xff);
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		return new ByteChars(buffer, offset + start, end - start);
+	}
+
+	public String toString() {
+		byte [] b = new byte[length];
+		for(int i = 0; i < length; i++) {
+			b[i] = buffer.get(offset + i);
+		}
+		return new String(b, UTF8);
+	}
+}
@@ -0,0 +1,108 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressed input and output files. Input is recognized by its first
+ * bytes (not by the file name, downloads are often named differently)
+ * and decompressed while it is read. Output files ending with .gz are
+ * compressed on a background thread.
+ *
+ * zstd files are recognized, but can't be read as there is no zstd
+ * codec in the libraries of the project.
+ * @author Thomas
+ *
+ */
+public class Compression {
+
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	public final static String GZIP_EXTENSION = ".gz";
+
+	public enum Format { NONE, GZIP, ZSTD }
+
+	/**
+	 * @return the format of the stream, the stream has to support mark
+	 */
+	public static Format detect(InputStream in) throws IOException {
+		byte [] magic = new byte[4];
+		in.mark(magic.length);
+		int n = 0;
+		int r;
+		while(n < magic.length && (r = in.read(magic, n, magic.length - n)) != -1) {
+			n += r;
+		}
+		in.reset();
+		if(n >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+			return Format.GZIP;
+		}
+		if(n == 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5 && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd) {
+			return Format.ZSTD;
+		}
+		return Format.NONE;
+	}
+
+	/**
+	 * @return the stream, decompressed if it is compressed
+	 */
+	public static InputStream decompress(InputStream in) throws IOException {
+		if(!in.markSupported()) in = new BufferedInputStream(in, BUFFER_SIZE);
+		switch(detect(in)) {
+		case GZIP: return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+		case ZSTD:
+			in.close();
+			throw new IOException("zstd compressed input is not supported, please decompress it first or use gzip.");
+		default: return in;
+		}
+	}
+
+	public static InputStream open(File file) throws IOException {
+		return decompress(new FileInputStream(file));
+	}
+
+	public static InputStream open(URL url) throws IOException {
+		return decompress(url.openConnection().getInputStream());
+	}
+
+	/**
+	 * @return true if the file can't be read directly (e.g. memory mapped)
+	 */
+	public static boolean isCompressed(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 16);
+		try {
+			return detect(in) != Format.NONE;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * creates the output file, gzip compressed on a background
+	 * thread if the name ends with .gz
+	 */
+	public static OutputStream create(File output) throws IOException {
+		OutputStream out = new FileOutputStream(output);
+		if(output.getName().endsWith(GZIP_EXTENSION)) {
+			return new AsyncOutputStream(new GZIPOutputStream(out, BUFFER_SIZE));
+		}
+		return new BufferedOutputStream(out, BUFFER_SIZE);
+	}
+
+	/**
+	 * @return the file with .gz appended to the name if it is not there yet
+	 */
+	public static File gzip(File output) {
+		if(output.getName().endsWith(GZIP_EXTENSION)) return output;
+		return new File(output.getPath() + GZIP_EXTENSION);
+	}
+}
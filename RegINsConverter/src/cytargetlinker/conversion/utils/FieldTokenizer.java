@@ -0,0 +1,213 @@
+package cytargetlinker.conversion.utils;
+
+import java.util.Arrays;
+
+/**
+ * Splits delimited lines (TSV, CSV) into fields without allocating
+ * anything per line. Only the start and end of the requested columns
+ * are recorded, fields are compared in place and only turned into
+ * Strings when they are needed with {@link #get(int)}.
+ *
+ * Quoted fields ("a, b" or "say ""hi""") are supported if the tokenizer
+ * is created with quoted = true, fields spanning several lines are not.
+ * The tokenizer can be reused for all lines, but not by several threads.
+ * @author Thomas
+ *
+ */
+public class FieldTokenizer {
+
+	private final char delimiter;
+	private final boolean quoted;
+
+	// slot of a column in start/end, -1 if the column is not requested
+	private final int [] slots;
+	private final int [] start;
+	private final int [] end;
+	// field contains escaped quotes ("")
+	private final boolean [] escaped;
+
+	private CharSequence line;
+	private int fieldCount;
+
+	/**
+	 * @param columns the column indices that are needed (0 based)
+	 */
+	public FieldTokenizer(char delimiter, boolean quoted, int... columns) {
+		this.delimiter = delimiter;
+		this.quoted = quoted;
+		int max = -1;
+		for(int c : columns) max = Math.max(max, c);
+		slots = new int[max + 1];
+		Arrays.fill(slots, -1);
+		int n = 0;
+		for(int c : columns) {
+			if(slots[c] == -1) slots[c] = n++;
+		}
+		start = new int[n];
+		end = new int[n];
+		escaped = new boolean[n];
+	}
+
+	/**
+	 * tab separated fields without quotes
+	 */
+	public static FieldTokenizer tsv(int... columns) {
+		return new FieldTokenizer('\t', false, columns);
+	}
+
+	/**
+	 * comma separated fields, optionally in quotes
+	 */
+	public static FieldTokenizer csv(int... columns) {
+		return new FieldTokenizer(',', true, columns);
+	}
+
+	/**
+	 * @return columns 0 to n - 1
+	 */
+	public static int [] range(int n) {
+		int [] cols = new int[n];
+		for(int i = 0; i < n; i++) cols[i] = i;
+		return cols;
+	}
+
+	/**
+	 * @return the number of fields in the line
+	 */
+	public int tokenize(CharSequence line) {
+		return tokenize(line, 0, line.length());
+	}
+
+	/**
+	 * tokenizes the characters from - to of line, e.g. a field
+	 * of another tokenizer (see {@link #getStart(int)})
+	 * @return the number of fields
+	 */
+	public int tokenize(CharSequence line, int from, int to) {
+		this.line = line;
+		Arrays.fill(start, -1);
+		Arrays.fill(end, -1);
+		int col = 0;
+		int pos = from;
+		while(true) {
+			int slot = col < slots.length ? slots[col] : -1;
+			int s = pos;
+			int e;
+			boolean esc = false;
+			if(quoted && pos < to && line.charAt(pos) == '"') {
+				// quoted field, "" is an escaped quote
+				s = ++pos;
+				while(pos < to) {
+					if(line.charAt(pos) == '"') {
+						if(pos + 1 < to && line.charAt(pos + 1) == '"') {
+							esc = true;
+							pos += 2;
+							continue;
+						}
+						break;
+					}
+					pos++;
+				}
+				e = pos;
+				while(pos < to && line.charAt(pos) != delimiter) pos++;
+			} else {
+				while(pos < to && line.charAt(pos) != delimiter) pos++;
+				e = pos;
+			}
+			if(slot != -1) {
+				start[slot] = s;
+				end[slot] = e;
+				escaped[slot] = esc;
+			}
+			col++;
+			if(pos >= to) break;
+			pos++;
+		}
+		fieldCount = col;
+		return fieldCount;
+	}
+
+	/**
+	 * @return number of fields in the last line
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @return true if the last line has this (requested) column
+	 */
+	public boolean has(int col) {
+		int slot = col < slots.length ? slots[col] : -1;
+		return slot != -1 && start[slot] != -1;
+	}
+
+	/**
+	 * @return the field, "" if the line does not have the column
+	 */
+	public String get(int col) {
+		int slot = slot(col);
+		if(start[slot] == -1) return "";
+		String s = line.subSequence(start[slot], end[slot]).toString();
+		return escaped[slot] ? s.replace("\"\"", "\"") : s;
+	}
+
+	/**
+	 * @return the field without the first offset characters
+	 */
+	public String get(int col, int offset) {
+		String s = get(col);
+		return offset < s.length() ? s.substring(offset) : "";
+	}
+
+	public int length(int col) {
+		int slot = slot(col);
+		return start[slot] == -1 ? 0 : end[slot] - start[slot];
+	}
+
+	/**
+	 * @return position of the field in the line, -1 if the line does not have the column
+	 */
+	public int getStart(int col) {
+		return start[slot(col)];
+	}
+
+	public int getEnd(int col) {
+		return end[slot(col)];
+	}
+
+	/**
+	 * compares the field with str without creating a String
+	 */
+	public boolean equals(int col, String str) {
+		int slot = slot(col);
+		if(escaped[slot]) return get(col).equals(str);
+		return length(col) == str.length() && regionMatches(slot, 0, str);
+	}
+
+	public boolean startsWith(int col, String prefix) {
+		int slot = slot(col);
+		if(escaped[slot]) return get(col).startsWith(prefix);
+		return length(col) >= prefix.length() && regionMatches(slot, 0, prefix);
+	}
+
+	public boolean isEmpty(int col) {
+		return length(col) == 0;
+	}
+
+	private boolean regionMatches(int slot, int offset, String str) {
+		int s = start[slot] + offset;
+		for(int i = 0; i < str.length(); i++) {
+			if(line.charAt(s + i) != str.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private int slot(int col) {
+		int slot = col < slots.length ? slots[col] : -1;
+		if(slot == -1) {
+			throw new IllegalArgumentException("Column " + col + " was not requested from the tokenizer");
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,231 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Identifier mapping shared by the converters. Converters first
+ * {@link #request(Xref, DataSource...)} the xrefs they will need,
+ * {@link #resolve()} then maps them with set based mapID calls, and
+ * {@link #map(Xref, DataSource)} returns the results from a bounded
+ * cache (xrefs that were not requested are mapped one by one).
+ * @author Thomas
+ *
+ */
+public class MappingService {
+
+	private final static int BATCH_SIZE = 1000;
+
+	private IDMapper mapper;
+	private PersistentMappingCache persistent;
+	private Map<Key, Set<Xref>> cache;
+	private Map<Xref, Set<DataSource>> pending = new LinkedHashMap<Xref, Set<DataSource>>();
+
+	private long hits = 0;
+	private long persistentHits = 0;
+	private long misses = 0;
+	private long mapperCalls = 0;
+	private long nanos = 0;
+
+	public MappingService(IDMapper mapper) {
+		this(mapper, 100000);
+	}
+
+	/**
+	 * @param cacheSize maximum number of (xref, target data source) results kept
+	 */
+	public MappingService(IDMapper mapper, final int cacheSize) {
+		this.mapper = mapper;
+		cache = new LinkedHashMap<Key, Set<Xref>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Key, Set<Xref>> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * results that are not in memory are looked up in the persistent 
+	 * cache before the IDMapper is used, new results are added to it
+	 */
+	public void setPersistentCache(PersistentMappingCache persistent) {
+		this.persistent = persistent;
+	}
+
+	/**
+	 * queues a xref to be mapped to the targets with the next {@link #resolve()}
+	 */
+	public void request(Xref xref, DataSource... targets) {
+		Set<DataSource> tgt = pending.get(xref);
+		for(DataSource ds : targets) {
+			if(!cache.containsKey(new Key(xref, ds))) {
+				if(tgt == null) {
+					tgt = new HashSet<DataSource>();
+					pending.put(xref, tgt);
+				}
+				tgt.add(ds);
+			}
+		}
+	}
+
+	/**
+	 * maps all requested xrefs, xrefs with the same targets
+	 * are mapped together in batches of BATCH_SIZE
+	 */
+	public void resolve() throws IDMapperException {
+		Map<Set<DataSource>, List<Xref>> groups = new HashMap<Set<DataSource>, List<Xref>>();
+		for(Map.Entry<Xref, Set<DataSource>> e : pending.entrySet()) {
+			if(persistent != null) {
+				for(Iterator<DataSource> it = e.getValue().iterator(); it.hasNext(); ) {
+					DataSource ds = it.next();
+					Set<Xref> res = persistent.get(e.getKey(), ds);
+					if(res != null) {
+						cache.put(new Key(e.getKey(), ds), res);
+						it.remove();
+					}
+				}
+				if(e.getValue().isEmpty()) continue;
+			}
+			List<Xref> group = groups.get(e.getValue());
+			if(group == null) {
+				group = new ArrayList<Xref>();
+				groups.put(e.getValue(), group);
+			}
+			group.add(e.getKey());
+		}
+		pending.clear();
+
+		for(Map.Entry<Set<DataSource>, List<Xref>> e : groups.entrySet()) {
+			DataSource [] targets = e.getKey().toArray(new DataSource[e.getKey().size()]);
+			List<Xref> xrefs = e.getValue();
+			for(int i = 0; i < xrefs.size(); i += BATCH_SIZE) {
+				List<Xref> batch = xrefs.subList(i, Math.min(i + BATCH_SIZE, xrefs.size()));
+				long start = System.nanoTime();
+				Map<Xref, Set<Xref>> res = mapper.mapID(batch, targets);
+				nanos += System.nanoTime() - start;
+				mapperCalls++;
+				for(Xref x : batch) {
+					Set<Xref> mapped = res.get(x);
+					for(DataSource ds : targets) {
+						store(new Key(x, ds), filter(mapped, ds));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the xrefs of the target data source that x maps to
+	 */
+	public Set<Xref> map(Xref x, DataSource target) throws IDMapperException {
+		Key key = new Key(x, target);
+		Set<Xref> res = cache.get(key);
+		if(res != null) {
+			hits++;
+			return res;
+		}
+		if(persistent != null) {
+			res = persistent.get(x, target);
+			if(res != null) {
+				persistentHits++;
+				cache.put(key, res);
+				return res;
+			}
+		}
+		misses++;
+		long start = System.nanoTime();
+		res = filter(mapper.mapID(x, target), target);
+		nanos += System.nanoTime() - start;
+		mapperCalls++;
+		store(key, res);
+		return res;
+	}
+
+	/**
+	 * writes new results to the persistent cache (if there is one)
+	 */
+	public void close() throws IOException {
+		if(persistent != null) persistent.close();
+	}
+
+	private void store(Key key, Set<Xref> res) {
+		cache.put(key, res);
+		if(persistent != null) persistent.put(key.xref, key.target, res);
+	}
+
+	public IDMapper getMapper() {
+		return mapper;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getPersistentHits() {
+		return persistentHits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getMapperCalls() {
+		return mapperCalls;
+	}
+
+	/**
+	 * @return time spent in the IDMapper in milliseconds
+	 */
+	public long getMappingTime() {
+		return nanos / 1000000;
+	}
+
+	public String getReport() {
+		return "Identifier mapping: " + hits + " cache hits, " + persistentHits + " persistent cache hits, " + misses + " misses, "
+				+ mapperCalls + " mapper calls, " + getMappingTime() + " ms";
+	}
+
+	// results are kept in insertion order, like the mapper returned them
+	private static Set<Xref> filter(Set<Xref> mapped, DataSource target) {
+		if(mapped == null || mapped.isEmpty()) return Collections.emptySet();
+		Set<Xref> res = new LinkedHashSet<Xref>();
+		for(Xref x : mapped) {
+			if(target.equals(x.getDataSource())) res.add(x);
+		}
+		return Collections.unmodifiableSet(res);
+	}
+
+	private static class Key {
+		Xref xref;
+		DataSource target;
+
+		Key(Xref xref, DataSource target) {
+			this.xref = xref;
+			this.target = target;
+		}
+
+		public int hashCode() {
+			return 31 * xref.hashCode() + target.hashCode();
+		}
+
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return xref.equals(k.xref) && target.equals(k.target);
+		}
+	}
+}
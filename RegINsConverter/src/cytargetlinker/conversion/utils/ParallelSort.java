@@ -0,0 +1,64 @@
+package cytargetlinker.conversion.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Merge sort on a fork/join pool: the parts of the array are sorted
+ * on all processors and then merged. The sort is stable, like
+ * {@link Arrays#sort(Object[])}, small arrays are sorted directly.
+ * @author Thomas
+ *
+ */
+public class ParallelSort {
+	// parts smaller than this are sorted by one thread
+	private final static int THRESHOLD = 1 << 13;
+
+	public static <T extends Comparable<? super T>> void sort(T [] a) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		if(a.length <= THRESHOLD || threads == 1) {
+			Arrays.sort(a);
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new Sort<T>(a, a.clone(), 0, a.length));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static class Sort<T extends Comparable<? super T>> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private T [] a;
+		private T [] tmp;
+		private int from;
+		private int to;
+
+		Sort(T [] a, T [] tmp, int from, int to) {
+			this.a = a;
+			this.tmp = tmp;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if(to - from <= THRESHOLD) {
+				Arrays.sort(a, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Sort<T>(a, tmp, from, mid), new Sort<T>(a, tmp, mid, to));
+			// merge into tmp, on equal elements the left one first
+			int i = from, j = mid, k = from;
+			while(i < mid && j < to) {
+				tmp[k++] = a[j].compareTo(a[i]) < 0 ? a[j++] : a[i++];
+			}
+			while(i < mid) tmp[k++] = a[i++];
+			while(j < to) tmp[k++] = a[j++];
+			System.arraycopy(tmp, from, a, from, to - from);
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+
+/**
+ * Identifier mapping results of one BridgeDb database stored on disk, so
+ * that repeated conversions don't have to query the database again.
+ *
+ * The cache file is a sorted key/value table that is memory mapped and
+ * searched in place. It records size, modification date and CRC32 checksum
+ * of the .bridge file and is discarded automatically when the database changes.
+ * New results are kept in memory and merged into the file by {@link #close()}.
+ * Caches of the same file can be closed at the same time (also by other
+ * processes), the file is locked while it is merged, so no results are lost.
+ * Key and id lengths and the number of ids are stored in 16 bits, larger
+ * results are not cached.
+ * @author Thomas
+ *
+ */
+public class PersistentMappingCache {
+	private final static Logger log = Logger.getLogger(PersistentMappingCache.class.getName());
+
+	private final static int MAGIC = 0x52474d43;
+	private final static int VERSION = 1;
+	private final static int HEADER = 4 + 4 + 8 + 8 + 8 + 4;
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	private final static int MAX_SHORT = 0xffff;
+
+	// FileLock only works between processes, caches of the same file in this JVM lock these
+	private final static Map<String, Object> locks = new HashMap<String, Object>();
+
+	private File cacheFile;
+	private long bridgeSize;
+	private long bridgeModified;
+	private long checksum;
+
+	private MappedByteBuffer table;
+	private int count = 0;
+	private Map<String, List<String>> added = new HashMap<String, List<String>>();
+	// the modification date in the header is outdated
+	private boolean touched = false;
+
+	/**
+	 * opens the cache next to the BridgeDb database (bridgeFile + ".mapcache")
+	 */
+	public static PersistentMappingCache open(File bridgeFile) throws IOException {
+		return open(bridgeFile, new File(bridgeFile.getAbsolutePath() + ".mapcache"));
+	}
+
+	public static PersistentMappingCache open(File bridgeFile, File cacheFile) throws IOException {
+		PersistentMappingCache cache = new PersistentMappingCache();
+		cache.cacheFile = cacheFile;
+		cache.bridgeSize = bridgeFile.length();
+		cache.bridgeModified = bridgeFile.lastModified();
+		if(cacheFile.exists()) {
+			cache.load(bridgeFile);
+		} else {
+			cache.checksum = checksum(bridgeFile);
+		}
+		return cache;
+	}
+
+	private void load(File bridgeFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+		try {
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if(buf.limit() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+				log.warning("Ignoring invalid mapping cache " + cacheFile);
+				checksum = checksum(bridgeFile);
+				return;
+			}
+			long size = buf.getLong(8);
+			long modified = buf.getLong(16);
+			checksum = buf.getLong(24);
+			if(size != bridgeSize || modified != bridgeModified) {
+				// the file was touched, only keep the cache if the content is the same
+				long current = checksum(bridgeFile);
+				if(size != bridgeSize || current != checksum) {
+					log.info("BridgeDb database " + bridgeFile + " has changed, mapping cache is discarded");
+					checksum = current;
+					return;
+				}
+				touched = true;
+			}
+			table = buf;
+			count = buf.getInt(32);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the cached result or null if x has not been mapped to target before
+	 */
+	public synchronized Set<Xref> get(Xref x, DataSource target) {
+		String key = key(x, target);
+		List<String> ids = added.get(key);
+		if(ids == null) ids = find(utf8(key));
+		if(ids == null) return null;
+		Set<Xref> res = new LinkedHashSet<Xref>();
+		for(String id : ids) {
+			res.add(new Xref(id, target));
+		}
+		return Collections.unmodifiableSet(res);
+	}
+
+	public synchronized void put(Xref x, DataSource target, Set<Xref> result) {
+		String key = key(x, target);
+		if(utf8(key).length > MAX_SHORT || result.size() > MAX_SHORT) {
+			log.warning("Mapping result of " + key + " is too large for the cache");
+			return;
+		}
+		List<String> ids = new ArrayList<String>();
+		for(Xref r : result) {
+			if(utf8(r.getId()).length > MAX_SHORT) {
+				log.warning("Mapping result of " + key + " is too large for the cache");
+				return;
+			}
+			ids.add(r.getId());
+		}
+		added.put(key, ids);
+	}
+
+	public int size() {
+		return count + added.size();
+	}
+
+	/**
+	 * merges the new results into the cache file, with the results 
+	 * that other runs wrote since this cache was opened
+	 */
+	public synchronized void close() throws IOException {
+		if(added.isEmpty() && !touched) return;
+		synchronized(lock(cacheFile)) {
+			// the cache file is replaced, so a file of its own is locked
+			RandomAccessFile lockFile = new RandomAccessFile(cacheFile.getAbsolutePath() + ".lock", "rw");
+			try {
+				FileLock lock = lockFile.getChannel().lock();
+				try {
+					reload();
+					write();
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+	}
+
+	private static Object lock(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		synchronized(locks) {
+			Object lock = locks.get(path);
+			if(lock == null) {
+				lock = new Object();
+				locks.put(path, lock);
+			}
+			return lock;
+		}
+	}
+
+	// the current cache file, if it belongs to the same database
+	private void reload() throws IOException {
+		if(!cacheFile.exists()) return;
+		RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+		try {
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if(buf.limit() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) return;
+			if(buf.getLong(8) != bridgeSize || buf.getLong(24) != checksum) return;
+			table = buf;
+			count = buf.getInt(32);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void write() throws IOException {
+		final Map<byte[], List<String>> entries = new HashMap<byte[], List<String>>();
+		for(int i = 0; i < count; i++) {
+			int pos = offset(i);
+			byte [] key = new byte[table.getShort(pos) & 0xffff];
+			for(int k = 0; k < key.length; k++) key[k] = table.get(pos + 2 + k);
+			if(!added.containsKey(new String(key, UTF8))) {
+				entries.put(key, values(pos + 2 + key.length));
+			}
+		}
+		for(Map.Entry<String, List<String>> e : added.entrySet()) {
+			entries.put(utf8(e.getKey()), e.getValue());
+		}
+		List<byte[]> keys = new ArrayList<byte[]>(entries.keySet());
+		Collections.sort(keys, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return compareKeys(a, ByteBuffer.wrap(b), 0, b.length);
+			}
+		});
+
+		// a temporary file of its own, readers of the cache may have the old file open
+		File tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+		DataOutputStream out = null;
+		boolean written = false;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(bridgeSize);
+			out.writeLong(bridgeModified);
+			out.writeLong(checksum);
+			out.writeInt(keys.size());
+			int offset = HEADER + 4 * keys.size();
+			for(byte[] key : keys) {
+				out.writeInt(offset);
+				offset += 2 + key.length + 2;
+				for(String id : entries.get(key)) {
+					offset += 2 + utf8(id).length;
+				}
+			}
+			for(byte[] key : keys) {
+				out.writeShort(key.length);
+				out.write(key);
+				List<String> ids = entries.get(key);
+				out.writeShort(ids.size());
+				for(String id : ids) {
+					byte [] b = utf8(id);
+					out.writeShort(b.length);
+					out.write(b);
+				}
+			}
+			out.close();
+			written = true;
+		} finally {
+			if(!written) {
+				if(out != null) out.close();
+				tmp.delete();
+			}
+		}
+		table = null;
+		count = 0;
+		added.clear();
+		touched = false;
+		if(!tmp.renameTo(cacheFile)) {
+			cacheFile.delete();
+			if(!tmp.renameTo(cacheFile)) {
+				tmp.delete();
+				throw new IOException("Could not write mapping cache " + cacheFile);
+			}
+		}
+	}
+
+	// binary search in the memory mapped table
+	private List<String> find(byte [] key) {
+		int lo = 0;
+		int hi = count - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int pos = offset(mid);
+			int len = table.getShort(pos) & 0xffff;
+			int c = compareKeys(key, table, pos + 2, len);
+			if(c == 0) return values(pos + 2 + len);
+			if(c < 0) hi = mid - 1;
+			else lo = mid + 1;
+		}
+		return null;
+	}
+
+	private int offset(int entry) {
+		return table.getInt(HEADER + 4 * entry);
+	}
+
+	private List<String> values(int pos) {
+		int n = table.getShort(pos) & 0xffff;
+		pos += 2;
+		List<String> ids = new ArrayList<String>(n);
+		for(int i = 0; i < n; i++) {
+			int len = table.getShort(pos) & 0xffff;
+			byte [] b = new byte[len];
+			for(int k = 0; k < len; k++) b[k] = table.get(pos + 2 + k);
+			ids.add(new String(b, UTF8));
+			pos += 2 + len;
+		}
+		return ids;
+	}
+
+	// unsigned lexicographic comparison of key with len bytes of buf at pos
+	private static int compareKeys(byte [] key, ByteBuffer buf, int pos, int len) {
+		int n = Math.min(key.length, len);
+		for(int i = 0; i < n; i++) {
+			int c = (key[i] & 0xff) - (buf.get(pos + i) & 0xff);
+			if(c != 0) return c;
+		}
+		return key.length - len;
+	}
+
+	private static String key(Xref x, DataSource target) {
+		return x.getDataSource().getSystemCode() + "\t" + target.getSystemCode() + "\t" + x.getId();
+	}
+
+	private static byte [] utf8(String str) {
+		return str.getBytes(UTF8);
+	}
+
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte [] buf = new byte[1 << 16];
+			int len;
+			while((len = in.read(buf)) != -1) {
+				crc.update(buf, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,237 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * IDMapper that loads the links between a few data sources from a BridgeDb
+ * Derby database (.bridge file) once and answers all mapID calls from memory.
+ *
+ * Like the BridgeDb database, xrefs are linked through their primary (left)
+ * identifier. Every xref of the selected data sources gets an int index,
+ * the links are stored as int arrays in both directions.
+ * @author Thomas
+ *
+ */
+public class PreloadedIDMapper implements IDMapper {
+
+	private Set<DataSource> dataSources;
+	// index of an xref per data source
+	private Map<DataSource, Map<String, Integer>> index = new HashMap<DataSource, Map<String, Integer>>();
+	private List<String> ids = new ArrayList<String>();
+	private List<DataSource> idSource = new ArrayList<DataSource>();
+
+	// xref -> groups and group -> xrefs, a group is one left identifier
+	private int [] xrefStart;
+	private int [] xrefGroups;
+	private int [] groupStart;
+	private int [] groupXrefs;
+
+	private boolean connected = true;
+	private long loadTime;
+	private long lookups = 0;
+	private long lookupNanos = 0;
+
+	/**
+	 * loads all links between xrefs of the given data sources
+	 * @param bridgeFile BridgeDb Derby database
+	 */
+	public static PreloadedIDMapper load(File bridgeFile, DataSource... dataSources) throws IDMapperException {
+		long start = System.currentTimeMillis();
+		PreloadedIDMapper mapper = new PreloadedIDMapper();
+		mapper.dataSources = new HashSet<DataSource>(Arrays.asList(dataSources));
+		try {
+			Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+			Connection con = DriverManager.getConnection("jdbc:derby:jar:(" + bridgeFile.getAbsolutePath() + ")database");
+			try {
+				mapper.read(con, dataSources);
+			} finally {
+				con.close();
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IDMapperException("Derby driver not found", e);
+		} catch (SQLException e) {
+			throw new IDMapperException("Could not read " + bridgeFile, e);
+		}
+		mapper.loadTime = System.currentTimeMillis() - start;
+		return mapper;
+	}
+
+	private void read(Connection con, DataSource... dataSources) throws SQLException {
+		StringBuilder codes = new StringBuilder();
+		for(DataSource ds : dataSources) {
+			if(codes.length() > 0) codes.append(",");
+			codes.append("'" + ds.getSystemCode().replace("'", "''") + "'");
+			index.put(ds, new HashMap<String, Integer>());
+		}
+
+		Map<String, Integer> groups = new HashMap<String, Integer>();
+		IntList linkXref = new IntList();
+		IntList linkGroup = new IntList();
+
+		Statement st = con.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT idLeft, codeLeft, idRight, codeRight FROM link WHERE codeRight IN (" + codes + ")");
+			while(rs.next()) {
+				String left = rs.getString(2) + ":" + rs.getString(1);
+				Integer g = groups.get(left);
+				if(g == null) {
+					g = groups.size();
+					groups.put(left, g);
+				}
+				linkGroup.add(g);
+				linkXref.add(xref(rs.getString(3), DataSource.getBySystemCode(rs.getString(4))));
+			}
+			rs.close();
+		} finally {
+			st.close();
+		}
+
+		int [][] x2g = invert(linkXref, linkGroup, ids.size());
+		xrefStart = x2g[0];
+		xrefGroups = x2g[1];
+		int [][] g2x = invert(linkGroup, linkXref, groups.size());
+		groupStart = g2x[0];
+		groupXrefs = g2x[1];
+	}
+
+	private int xref(String id, DataSource ds) {
+		Map<String, Integer> idx = index.get(ds);
+		Integer i = idx.get(id);
+		if(i == null) {
+			i = ids.size();
+			ids.add(id);
+			idSource.add(ds);
+			idx.put(id, i);
+		}
+		return i;
+	}
+
+	// compressed adjacency lists (start offsets and values) from key -> value pairs
+	private static int [][] invert(IntList keys, IntList values, int n) {
+		int [] start = new int[n + 1];
+		for(int i = 0; i < keys.size; i++) {
+			start[keys.data[i] + 1]++;
+		}
+		for(int i = 0; i < n; i++) {
+			start[i + 1] += start[i];
+		}
+		int [] pos = Arrays.copyOf(start, n);
+		int [] adj = new int[keys.size];
+		for(int i = 0; i < keys.size; i++) {
+			adj[pos[keys.data[i]]++] = values.data[i];
+		}
+		return new int[][] { start, adj };
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> res = new HashMap<Xref, Set<Xref>>();
+		for(Xref x : srcXrefs) {
+			res.put(x, mapID(x, tgtDataSources));
+		}
+		return res;
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		long start = System.nanoTime();
+		Set<DataSource> tgt = tgtDataSources.length == 0 ? dataSources : new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+		Set<Xref> res = new LinkedHashSet<Xref>();
+		int x = find(ref);
+		if(x != -1) {
+			for(int i = xrefStart[x]; i < xrefStart[x + 1]; i++) {
+				int g = xrefGroups[i];
+				for(int j = groupStart[g]; j < groupStart[g + 1]; j++) {
+					int y = groupXrefs[j];
+					if(tgt.contains(idSource.get(y))) {
+						res.add(new Xref(ids.get(y), idSource.get(y)));
+					}
+				}
+			}
+		}
+		synchronized(this) {
+			lookups++;
+			lookupNanos += System.nanoTime() - start;
+		}
+		return res;
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		return find(xref) != -1;
+	}
+
+	private int find(Xref xref) {
+		Map<String, Integer> idx = index.get(xref.getDataSource());
+		if(idx == null) return -1;
+		Integer i = idx.get(xref.getId());
+		return i == null ? -1 : i;
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		throw new IDMapperException("Free search is not supported by the preloaded identifier mapper.");
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return new IDMapperCapabilities() {
+			public boolean isFreeSearchSupported() { return false; }
+			public Set<DataSource> getSupportedSrcDataSources() { return Collections.unmodifiableSet(dataSources); }
+			public Set<DataSource> getSupportedTgtDataSources() { return Collections.unmodifiableSet(dataSources); }
+			public boolean isMappingSupported(DataSource src, DataSource tgt) {
+				return dataSources.contains(src) && dataSources.contains(tgt);
+			}
+			public String getProperty(String key) { return null; }
+			public Set<String> getKeys() { return Collections.emptySet(); }
+		};
+	}
+
+	public void close() throws IDMapperException {
+		connected = false;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return time needed to load the database in milliseconds
+	 */
+	public long getLoadTime() {
+		return loadTime;
+	}
+
+	public String getReport() {
+		double ms = lookupNanos / 1000000.0;
+		return "Preloaded identifier mapping: " + ids.size() + " xrefs loaded in " + loadTime + " ms, "
+				+ lookups + " lookups in " + Math.round(ms) + " ms"
+				+ (lookups > 0 ? " (" + Math.round(lookups / Math.max(ms, 1) * 1000) + " lookups/s)" : "");
+	}
+
+	private static class IntList {
+		int [] data = new int[1024];
+		int size = 0;
+
+		void add(int i) {
+			if(size == data.length) data = Arrays.copyOf(data, size * 2);
+			data[size++] = i;
+		}
+	}
+}
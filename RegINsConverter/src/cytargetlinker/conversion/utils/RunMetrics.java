@@ -0,0 +1,292 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of a conversion run: the time spent in each phase, counters
+ * (rows, nodes, edges, identifier mapping) and samples of the heap usage.
+ * The run can print its progress periodically and is written as a JSON
+ * report, so runs of different releases can be compared.
+ *
+ * Phase times are summed over all threads, with parallel conversions they
+ * can add up to more than the wall time. The methods can be called by
+ * several threads.
+ * @author Thomas
+ *
+ */
+public class RunMetrics {
+
+	public enum Phase {
+		READ("read"), PARSE("parse"), MAPPING("mapping"), BUILD("build"), WRITE("write");
+
+		String name;
+
+		private Phase(String name) {
+			this.name = name;
+		}
+	}
+
+	public enum Counter {
+		ROWS_READ("rowsRead"),
+		/** rows that are not converted (e.g. other organisms) */
+		ROWS_FILTERED("rowsFiltered"),
+		/** rows that can't be converted (e.g. missing values) */
+		ROWS_REJECTED("rowsRejected"),
+		NODES("nodes"), EDGES("edges"),
+		MAPPER_CALLS("mapperCalls"), CACHE_HITS("cacheHits"),
+		PERSISTENT_CACHE_HITS("persistentCacheHits"), CACHE_MISSES("cacheMisses");
+
+		String name;
+
+		private Counter(String name) {
+			this.name = name;
+		}
+	}
+
+	private final static int MAX_SAMPLES = 1000;
+	private final static long SAMPLE_INTERVAL = 1000;
+
+	private String name;
+	private AtomicLongArray phases = new AtomicLongArray(Phase.values().length);
+	private AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+	private long started;
+	private long startNanos;
+	private long wallNanos = -1;
+
+	// heap samples in MB, every sampleStep-th sample is kept
+	private List<Long> heapSamples = new ArrayList<Long>();
+	private int sampleStep = 1;
+	private int sampleCount = 0;
+	private long maxHeapUsed = 0;
+	private long progressInterval = 0;
+	private long lastProgress;
+	private long lastRows;
+	private Thread sampler;
+
+	/**
+	 * @param name the name of the run (e.g. the network) in the report
+	 */
+	public RunMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * starts the wall clock and the heap sampling
+	 */
+	public synchronized void start() {
+		started = System.currentTimeMillis();
+		startNanos = System.nanoTime();
+		lastProgress = startNanos;
+		sampler = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while(!Thread.interrupted()) {
+						Thread.sleep(SAMPLE_INTERVAL);
+						sample();
+					}
+				} catch (InterruptedException e) {
+					// finished
+				}
+			}
+		}, "RunMetrics");
+		sampler.setDaemon(true);
+		sampler.start();
+	}
+
+	/**
+	 * prints the progress (rows read, rows/second and heap) every interval seconds
+	 * while the run is going, 0 disables the progress
+	 */
+	public synchronized void setProgressInterval(int seconds) {
+		progressInterval = seconds * 1000000000L;
+	}
+
+	/**
+	 * stops the wall clock and the heap sampling
+	 */
+	public void finish() {
+		Thread t;
+		synchronized(this) {
+			if(wallNanos >= 0) return;
+			wallNanos = System.nanoTime() - startNanos;
+			t = sampler;
+		}
+		if(t != null) {
+			t.interrupt();
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		sample();
+	}
+
+	/**
+	 * adds the time since start (from System.nanoTime()) to the phase
+	 * @return the current time, e.g. the start of the next phase
+	 */
+	public long stop(Phase phase, long start) {
+		long now = System.nanoTime();
+		phases.addAndGet(phase.ordinal(), now - start);
+		return now;
+	}
+
+	public void count(Counter counter) {
+		counters.incrementAndGet(counter.ordinal());
+	}
+
+	public void count(Counter counter, long n) {
+		counters.addAndGet(counter.ordinal(), n);
+	}
+
+	public void set(Counter counter, long value) {
+		counters.set(counter.ordinal(), value);
+	}
+
+	public long get(Counter counter) {
+		return counters.get(counter.ordinal());
+	}
+
+	/**
+	 * @return time of the phase in milliseconds
+	 */
+	public long getTime(Phase phase) {
+		return phases.get(phase.ordinal()) / 1000000;
+	}
+
+	/**
+	 * adds the mapper calls and cache hits of the mapping service,
+	 * call it once per service at the end of the run
+	 */
+	public void add(MappingService mapping) {
+		count(Counter.MAPPER_CALLS, mapping.getMapperCalls());
+		count(Counter.CACHE_HITS, mapping.getHits());
+		count(Counter.PERSISTENT_CACHE_HITS, mapping.getPersistentHits());
+		count(Counter.CACHE_MISSES, mapping.getMisses());
+	}
+
+	/**
+	 * @return the wall time in milliseconds, until now if the run isn't finished
+	 */
+	public synchronized long getWallTime() {
+		return (wallNanos >= 0 ? wallNanos : System.nanoTime() - startNanos) / 1000000;
+	}
+
+	private void sample() {
+		long used = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20;
+		String progress = null;
+		synchronized(this) {
+			maxHeapUsed = Math.max(maxHeapUsed, used);
+			if(sampleCount++ % sampleStep == 0) {
+				heapSamples.add(used);
+				// long runs: keep every other sample and sample half as often
+				if(heapSamples.size() == MAX_SAMPLES) {
+					for(int i = heapSamples.size() - 1; i > 0; i -= 2) heapSamples.remove(i);
+					sampleStep *= 2;
+				}
+			}
+			long now = System.nanoTime();
+			if(progressInterval > 0 && wallNanos < 0 && now - lastProgress >= progressInterval) {
+				long rows = get(Counter.ROWS_READ);
+				progress = "[INFO:]\t" + name + ": " + rows + " rows read ("
+						+ (long)((rows - lastRows) * 1e9 / (now - lastProgress)) + " rows/s), "
+						+ get(Counter.NODES) + " nodes, " + get(Counter.EDGES) + " edges, heap " + used + " MB";
+				lastProgress = now;
+				lastRows = rows;
+			}
+		}
+		if(progress != null) System.out.println(progress);
+	}
+
+	/**
+	 * @return one line summary of the run
+	 */
+	public String getSummary() {
+		StringBuilder str = new StringBuilder(name + " in " + getWallTime() + " ms (");
+		for(Phase p : Phase.values()) {
+			if(p.ordinal() > 0) str.append(", ");
+			str.append(p.name + " " + getTime(p) + " ms");
+		}
+		str.append("), " + get(Counter.ROWS_READ) + " rows, " + get(Counter.NODES) + " nodes, " + get(Counter.EDGES) + " edges");
+		synchronized(this) {
+			str.append(", max heap used " + maxHeapUsed + " MB");
+		}
+		return str.toString();
+	}
+
+	/**
+	 * @return the report as JSON object
+	 */
+	public synchronized String toJson() {
+		SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+		long wall = getWallTime();
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"name\": ").append(string(name)).append(",\n");
+		json.append("  \"started\": ").append(string(iso.format(new Date(started)))).append(",\n");
+		json.append("  \"wallMs\": ").append(wall).append(",\n");
+		json.append("  \"phasesMs\": {");
+		for(Phase p : Phase.values()) {
+			json.append(p.ordinal() > 0 ? ", " : "").append(string(p.name)).append(": ").append(getTime(p));
+		}
+		json.append("},\n");
+		json.append("  \"counters\": {");
+		for(Counter c : Counter.values()) {
+			json.append(c.ordinal() > 0 ? ", " : "").append(string(c.name)).append(": ").append(get(c));
+		}
+		json.append("},\n");
+		json.append("  \"rowsPerSecond\": ").append(wall == 0 ? 0 : get(Counter.ROWS_READ) * 1000 / wall).append(",\n");
+		json.append("  \"heap\": {\"maxMb\": ").append(Runtime.getRuntime().maxMemory() >> 20)
+			.append(", \"maxUsedMb\": ").append(maxHeapUsed)
+			.append(", \"sampleIntervalMs\": ").append(SAMPLE_INTERVAL * sampleStep)
+			.append(", \"samplesMb\": ").append(heapSamples).append("},\n");
+		json.append("  \"jvm\": {\"version\": ").append(string(System.getProperty("java.version")))
+			.append(", \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append("}\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * writes the JSON report to the file
+	 */
+	public void writeReport(File file) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(toJson());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String string(String s) {
+		StringBuilder str = new StringBuilder("\"");
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '"': str.append("\\\""); break;
+			case '\\': str.append("\\\\"); break;
+			case '\n': str.append("\\n"); break;
+			case '\r': str.append("\\r"); break;
+			case '\t': str.append("\\t"); break;
+			default:
+				if(c < 0x20) str.append(String.format("\\u%04x", (int)c));
+				else str.append(c);
+			}
+		}
+		return str.append('"').toString();
+	}
+}